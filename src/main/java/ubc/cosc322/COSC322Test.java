@@ -285,6 +285,7 @@ public class COSC322Test extends GamePlayer {
 		lastWinRatio = winRatio;
 		System.out.println("OUR ai's current mental state is " + EmoticonReactions.generateReaction(winRatio, winRatioDelta));
 		System.out.println(NumberFormat.getNumberInstance(Locale.CANADA).format(stats.evaluations) + " SIMULATIONS performed with MAX DEPTH of " + stats.maxDepth);
+		System.out.println("OUR ai's search tree has " + NumberFormat.getNumberInstance(Locale.CANADA).format(stats.treeNodes) + " NODES using " + (stats.treeBytes >> 20) + " of " + (stats.treeCapacityBytes >> 20) + " MB (" + String.format("%,.1f", stats.bytesPerNode) + " bytes per node)");
 	}
 	
 	@Override
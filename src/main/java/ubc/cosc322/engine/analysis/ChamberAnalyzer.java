@@ -1,7 +1,10 @@
 package ubc.cosc322.engine.analysis;
 
+import java.util.Arrays;
+
+import ubc.cosc322.engine.core.Bitboard;
 import ubc.cosc322.engine.core.Dimensions;
-import ubc.cosc322.engine.util.IntList;
+import ubc.cosc322.engine.core.Direction;
 
 /**
  * This class is an efficient way to detect whether one position on the board
@@ -9,153 +12,267 @@ import ubc.cosc322.engine.util.IntList;
  * the efficient calculation of the sizes of the territory reachable from a
  * given position. The output of the class can be used to detect endgames and
  * estimate territory control.
+ *
+ * Chambers are maintained incrementally. When an arrow is placed only the
+ * positions around it are checked to see whether it could have split its
+ * chamber. Only if it could, the sides of the arrow are flood filled and
+ * relabelled as new chambers. Arrows must be removed in the reverse order they
+ * were placed, which is how undoing moves works.
+ *
+ * Arrows are queued and only applied when chambers are queried, so boards
+ * that never look at chambers, like those in plain rollouts, pay nothing.
  */
 public class ChamberAnalyzer {
 
 	// the dimension object will the same as that used in the Board class
 	private final Dimensions dimensions;
 
-	// one integer in this bitmap is represents a board row
-	// as such the maximum supported board width is 32
-	private int[] arrowBitmap;
+	// the chamber of each position, -1 for arrows and positions off the board
+	private int[] chamberBoard;
+
+	// the sizes of chambers in board spaces, indexed by chamber
+	private int[] chamberSizes;
+
+	// the number of chambers ever created, the next chamber to create
+	private int chamberCount;
+
+	// positions that are on the board and don't have arrows
+	private Bitboard open;
 
-	// a matrix of mappings of position to groups/chambers
-	private int[] groupBoard;
+	// for every arrow placed, the chamber it was placed in and the number of
+	// chambers that were split off by it. two ints per arrow.
+	private int[] arrowLog;
+	private int arrowLogSize;
 
-	// a vector of mapping between connected groups/chambers
-	private int[] groupMappings;
+	// arrows that have been placed but not applied to the chambers yet
+	private int[] pendingArrows;
+	private int pendingArrowsSize;
 
-	// the sizes of groups/chambers
-	private int[] groupSizes;
+	// scratch bitboards for flood fills, these are never copied
+	private Bitboard region, frontier, grown, shifted;
+
+	// for each combination of open positions around a position, as a bitmask
+	// of direction indices, the number of groups those positions form on
+	// their own. if it's not more than one, an arrow there can't split anything
+	private static final byte[] NEIGHBOUR_GROUPS = computeNeighbourGroups();
 
-	// binary masks, specific to group derived from arrow bitmap rows
-	private IntList groupMasks;
-	
 	/** Creates chamber analyzer, placeArrow should be called after this. */
 	public ChamberAnalyzer(Dimensions dimensions) {
 		this.dimensions = dimensions;
-		this.arrowBitmap = new int[dimensions.boardHeight];
-		this.groupBoard = new int[dimensions.arraySize];
-		this.groupMappings = new int[dimensions.boardSize];
-		this.groupSizes = new int[dimensions.boardSize];
-		this.groupMasks = new IntList(dimensions.boardSize);
+		this.pendingArrows = new int[dimensions.boardSize];
+		this.pendingArrowsSize = 0;
+	}
+
+	// the chambers are only allocated the first time they are queried, so
+	// boards that never look at them, like loaded positions, are cheap to make
+	private void initialize() {
+		this.chamberBoard = new int[dimensions.arraySize];
+		Arrays.fill(chamberBoard, -1);
+		for (int y = 0; y < dimensions.boardHeight; y++) {
+			for (int x = 0; x < dimensions.boardWidth; x++) {
+				chamberBoard[dimensions.position(x, y)] = 0;
+			}
+		}
+		this.chamberSizes = new int[dimensions.boardSize + 1];
+		this.chamberSizes[0] = dimensions.boardSize;
+		this.chamberCount = 1;
+		this.open = dimensions.getBoardMask().clone();
+		this.arrowLog = new int[2*dimensions.boardSize];
+		this.arrowLogSize = 0;
+		allocateFloodBuffers();
 	}
 
 	/** Copy constructor. */
 	public ChamberAnalyzer(ChamberAnalyzer other) {
 		this.dimensions = other.dimensions;
-		this.arrowBitmap = other.arrowBitmap.clone();
-		this.groupBoard = other.groupBoard.clone();
-		this.groupMappings = other.groupMappings.clone();
-		this.groupSizes = other.groupSizes.clone();
-		this.groupMasks = other.groupMasks.clone();
+		this.pendingArrows = other.pendingArrows.clone();
+		this.pendingArrowsSize = other.pendingArrowsSize;
+		if (other.chamberBoard == null) {
+			return;
+		}
+		this.chamberBoard = other.chamberBoard.clone();
+		this.chamberSizes = other.chamberSizes.clone();
+		this.chamberCount = other.chamberCount;
+		this.open = other.open.clone();
+		this.arrowLog = other.arrowLog.clone();
+		this.arrowLogSize = other.arrowLogSize;
+		allocateFloodBuffers();
 	}
 
-	/** Places a 1 into the arrow bitmap at a given position. */
+	private void allocateFloodBuffers() {
+		this.region = new Bitboard(dimensions);
+		this.frontier = new Bitboard(dimensions);
+		this.grown = new Bitboard(dimensions);
+		this.shifted = new Bitboard(dimensions);
+	}
+
+	/** Places an arrow, it is applied the next time chambers are queried. */
 	public void placeArrow(int position) {
-		arrowBitmap[dimensions.y(position)] |= 1 << dimensions.x(position);
+		pendingArrows[pendingArrowsSize++] = position;
 	}
 
-	/** Updates all the group mappings and sizes based on current arrow bitmap. */
+	/** Removes the most recently placed arrow, merging any chambers it split. */
+	public void removeArrow(int position) {
+		if (pendingArrowsSize > 0) {
+			// pending arrows are always newer than applied ones
+			pendingArrowsSize--;
+		} else {
+			unapplyArrow(position);
+		}
+	}
+
+	/** Applies any arrows placed since chambers were last queried. */
 	public void update() {
-		groupMasks.clear();
-		int previousBase = 0;
-		computeGroupMasks(arrowBitmap[0], 0);
-		// loop through bitmap rows
-		for (int y = 1; y < arrowBitmap.length; y++) {
-			int nextBase = groupMasks.size();
-			computeGroupMasks(arrowBitmap[y], y);
-			// loop through groups in row
-			for (int i = nextBase; i < groupMasks.size(); i++) {
-				int parentMask = groupMasks.get(i);
-				int connectionMask = connectionMask(parentMask);
-				// loop through previous groups in row
-				for (int j = previousBase; j < nextBase; j++) {
-					int childMask = groupMasks.get(j);
-					// check if groups connected via bitwise and
-					if ((connectionMask & childMask) != 0) {
-						if (groupMappings[j] == j) {
-							// if a group is mapped to itself
-							// update its mapping to this new connected group
-							// and attribute its size to the new group
-							groupMappings[j] = groupMappings[i];
-							groupSizes[i] += groupSizes[j];
-						} else {
-							// if the group is not mapped to itself
-							// it must mapped to another established group
-							// point the new group to that established group 
-							groupMappings[i] = groupMappings[groupMappings[j]];
-						}
-					}
-				}
-				if (groupMappings[i] != i) {
-					// attribute all size gained to established group if needed
-					groupSizes[groupMappings[i]] += groupSizes[i];
+		if (chamberBoard == null) {
+			initialize();
+		}
+		for (int i = 0; i < pendingArrowsSize; i++) {
+			applyArrow(pendingArrows[i]);
+		}
+		pendingArrowsSize = 0;
+	}
+
+	// splits the chamber of a new arrow if needed
+	private void applyArrow(int position) {
+		int chamber = chamberBoard[position];
+		chamberBoard[position] = -1;
+		chamberSizes[chamber]--;
+		open.clear(position);
+		int previousCount = chamberCount;
+		if (NEIGHBOUR_GROUPS[openNeighbours(position)] > 1) {
+			split(position, chamber);
+		}
+		arrowLog[arrowLogSize] = chamber;
+		arrowLog[arrowLogSize+1] = chamberCount - previousCount;
+		arrowLogSize += 2;
+	}
+
+	// merges the chambers split by the most recently applied arrow
+	private void unapplyArrow(int position) {
+		arrowLogSize -= 2;
+		int chamber = arrowLog[arrowLogSize];
+		int splitCount = arrowLog[arrowLogSize+1];
+		open.set(position);
+		chamberBoard[position] = chamber;
+		chamberSizes[chamber]++;
+		if (splitCount != 0) {
+			// the chambers split off by this arrow are the newest ones
+			chamberCount -= splitCount;
+			flood(position, 0);
+			relabel(region, chamber);
+			chamberSizes[chamber] = region.count();
+		}
+	}
+
+	// a bitmask of the directions around a position that are open
+	private int openNeighbours(int position) {
+		int mask = 0;
+		for (int d = 0; d < Direction.COUNT; d++) {
+			if (dimensions.getRayLength(position, d) != 0) {
+				int neighbour = position + dimensions.getDirectionOffset(d);
+				if (chamberBoard[neighbour] != -1) {
+					mask |= 1 << d;
 				}
 			}
-			previousBase = nextBase;
 		}
+		return mask;
 	}
 
-	// converts a row to individual groups
-	// eg. 0001100100
-    // becomes
-	//     0000000011
-	//     0000011000
-	//     1110000000
-	// group board assignments are so made in this function
-	// along with initial group sizes, but those are subject to change
-	private void computeGroupMasks(int row, int y) {
-		int group = 0;
-		int shift = 0;
-		int yOffset = y*dimensions.arrayWidth;
-		do {
-			while (((row >> shift) & 1) != 0 && shift < 10) {
-				shift++;
+	// flood fills each side of an arrow that could have split a chamber, and
+	// gives each side a new chamber. once the unreached positions around the
+	// arrow are all touching, they must be the last side, which keeps the old
+	// chamber without being filled. if a fill reaches every position around
+	// the arrow, the chamber wasn't split after all, and the fill stops there,
+	// which is usually after a few steps.
+	private void split(int position, int chamber) {
+		int unreached = openNeighbours(position);
+		int remainingSize = chamberSizes[chamber];
+		while (NEIGHBOUR_GROUPS[unreached] > 1) {
+			unreached &= ~flood(position, unreached);
+			if (unreached == 0) {
+				break;
 			}
-			int size = 0;
-			while (((row >> shift) & 1) == 0 && shift < 10) {
-				group = group | (1 << shift);
-				groupBoard[shift+yOffset] = groupMasks.size();
-				shift++;
-				size++;
+			int newChamber = newChamber();
+			int size = region.count();
+			relabel(region, newChamber);
+			chamberSizes[newChamber] = size;
+			remainingSize -= size;
+		}
+		chamberSizes[chamber] = remainingSize;
+	}
+
+	private int newChamber() {
+		if (chamberCount == chamberSizes.length) {
+			chamberSizes = Arrays.copyOf(chamberSizes, 2*chamberSizes.length);
+		}
+		return chamberCount++;
+	}
+
+	// fills the region buffer with every open position connected to the
+	// lowest target neighbour of a position, or the position itself if there
+	// are no targets. returns the targets that were reached, stopping as soon
+	// as all of them are. each step grows the frontier by one position in all
+	// 8 directions, the padding columns of the board stop it from wrapping
+	// around the sides.
+	private int flood(int position, int targets) {
+		int reached = 0;
+		region.clearAll();
+		if (targets == 0) {
+			region.set(position);
+		} else {
+			int start = Integer.numberOfTrailingZeros(targets);
+			region.set(position + dimensions.getDirectionOffset(start));
+			reached = 1 << start;
+		}
+		frontier.copy(region);
+		int arrayWidth = dimensions.arrayWidth;
+		while (reached != targets || targets == 0) {
+			// horizontal growth, then vertical growth of that covers diagonals
+			grown.shift(frontier, 1);
+			shifted.shift(frontier, -1);
+			grown.or(shifted);
+			grown.or(frontier);
+			shifted.shift(grown, arrayWidth);
+			frontier.or(shifted);
+			shifted.shift(grown, -arrayWidth);
+			frontier.or(shifted);
+			frontier.or(grown);
+			frontier.and(open);
+			frontier.andNot(region);
+			if (frontier.isEmpty()) {
+				break;
 			}
-			if (group != 0) {
-				int groupIndex = groupMasks.size();
-				groupMasks.push(group);
-				groupMappings[groupIndex] = groupIndex;
-				groupSizes[groupIndex] = size;
-				group = 0;
+			region.or(frontier);
+			int remaining = targets & ~reached;
+			for (int d = 0; remaining != 0; d++, remaining >>>= 1) {
+				if ((remaining & 1) != 0 && frontier.get(position + dimensions.getDirectionOffset(d))) {
+					reached |= 1 << d;
+				}
 			}
-		} while (shift < 10);
+		}
+		return reached;
 	}
 
-	// creates bitmask that can determine if two rows are connected
-	// essentially bits are widened in both direction by one
-	// eg. 0000111000
-	// becomes
-	//     0001111100
-	private int connectionMask(int row) {
-		return (row | (row << 1) | (row >> 1)) & ((1 << dimensions.boardWidth) - 1);
+	// assigns every position in a set to a chamber
+	private void relabel(Bitboard positions, int chamber) {
+		for (int p = positions.nextSetBit(0); p != -1; p = positions.nextSetBit(p+1)) {
+			chamberBoard[p] = chamber;
+		}
 	}
 
 	/**
-	 * Gets the chamber mapping of a position.
-	 * WARNING THIS MIGHT GO INTO AN INFINITE LOOP IF THE POSITION IS AN ARROW
-	 * OR INVALID UNDEFINED BEHAVIOUR, DON'T EVEN TRY IT NOT CHECKING FOR
-	 * PERFORMANCE REASONS.
+	 * Gets the chamber of a position. The result is -1 for arrows and
+	 * positions that are off the board.
 	 */
 	public int getPositionChamber(int position) {
-		int mapping = groupBoard[position];
-		while (groupMappings[mapping] != mapping) {
-			mapping = groupMappings[mapping];
-		}
-		return mapping;
+		update();
+		return chamberBoard[position];
 	}
 
 	/** Gets the size of chamber in board tiles. */
 	public int getChamberSize(int chamber) {
-		return groupSizes[chamber];
+		update();
+		return chamberSizes[chamber];
 	}
 
 	/** Copies the analyzer. */
@@ -163,4 +280,48 @@ public class ChamberAnalyzer {
 		return new ChamberAnalyzer(this);
 	}
 
+	// two neighbours of a position touch if they are within one step of each
+	// other, eg. the positions above and to the right of a position touch
+	// diagonally, so an arrow between them doesn't separate them
+	private static byte[] computeNeighbourGroups() {
+		Direction[] directions = Direction.values();
+		byte[] groups = new byte[1 << directions.length];
+		int[] group = new int[directions.length];
+		for (int mask = 0; mask < groups.length; mask++) {
+			// union find over at most 8 elements
+			for (int i = 0; i < directions.length; i++) {
+				group[i] = i;
+			}
+			for (int i = 0; i < directions.length; i++) {
+				for (int j = i + 1; j < directions.length; j++) {
+					boolean bothOpen = (mask & (1 << i)) != 0 && (mask & (1 << j)) != 0;
+					boolean touching = (
+						Math.abs(directions[i].x - directions[j].x) <= 1 &&
+						Math.abs(directions[i].y - directions[j].y) <= 1
+					);
+					if (bothOpen && touching) {
+						int a = root(group, i);
+						int b = root(group, j);
+						group[a] = b;
+					}
+				}
+			}
+			int count = 0;
+			for (int i = 0; i < directions.length; i++) {
+				if ((mask & (1 << i)) != 0 && root(group, i) == i) {
+					count++;
+				}
+			}
+			groups[mask] = (byte) count;
+		}
+		return groups;
+	}
+
+	private static int root(int[] group, int i) {
+		while (group[i] != i) {
+			i = group[i];
+		}
+		return i;
+	}
+
 }
@@ -0,0 +1,69 @@
+package ubc.cosc322.engine.codec;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import ubc.cosc322.engine.core.Board;
+import ubc.cosc322.engine.core.Dimensions;
+
+/** Streams positions in from binary records written by BinaryPositionWriter. */
+public class BinaryPositionReader implements Closeable {
+
+	private final InputStream input;
+	private final PositionBinary codec;
+	private final byte[] record;
+
+	/** Reads the header of a stream, positions use the standard board layout. */
+	public BinaryPositionReader(InputStream input) throws IOException {
+		this(input, false);
+	}
+
+	/** Reads the header of a stream, optionally loading positions into
+	 *  boards with the sentinel layout. */
+	public BinaryPositionReader(InputStream input, boolean sentinels) throws IOException {
+		this.input = new BufferedInputStream(input, 1 << 16);
+		byte[] header = new byte[BinaryPositionWriter.MAGIC.length + 4];
+		if (this.input.readNBytes(header, 0, header.length) != header.length) {
+			throw new EOFException("missing header");
+		}
+		if (!Arrays.equals(header, 0, BinaryPositionWriter.MAGIC.length, BinaryPositionWriter.MAGIC, 0, BinaryPositionWriter.MAGIC.length)) {
+			throw new IOException("not a binary position stream");
+		}
+		int version = header[4] & 0xFF;
+		if (version != BinaryPositionWriter.VERSION) {
+			throw new IOException("unsupported version " + version);
+		}
+		int width = header[5] & 0xFF;
+		int height = header[6] & 0xFF;
+		int queensPerColor = header[7] & 0xFF;
+		this.codec = new PositionBinary(new Dimensions(width, height, sentinels), queensPerColor);
+		this.record = new byte[codec.recordSize()];
+	}
+
+	/** The dimensions of the positions in the stream. */
+	public Dimensions getDimensions() {
+		return codec.getDimensions();
+	}
+
+	/** Reads the next position, or returns null at the end of the stream. */
+	public Board read() throws IOException {
+		int read = input.readNBytes(record, 0, record.length);
+		if (read == 0) {
+			return null;
+		}
+		if (read != record.length) {
+			throw new EOFException("truncated position record");
+		}
+		return codec.decode(record, 0);
+	}
+
+	@Override
+	public void close() throws IOException {
+		input.close();
+	}
+
+}
@@ -0,0 +1,67 @@
+package ubc.cosc322.engine.codec;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import ubc.cosc322.engine.core.Board;
+import ubc.cosc322.engine.core.Dimensions;
+
+/**
+ * Streams positions out as fixed size binary records, see PositionBinary.
+ * The stream starts with a header so it can be read back without knowing the
+ * dimensions: the magic bytes "AMZP", a version byte, then the board width,
+ * board height and queens per color as one unsigned byte each, so codecs
+ * for anything bigger are rejected.
+ */
+public class BinaryPositionWriter implements Closeable {
+
+	/** The bytes every binary position stream starts with. */
+	public static final byte[] MAGIC = { 'A', 'M', 'Z', 'P' };
+
+	/** The version of the format written. */
+	public static final int VERSION = 1;
+
+	private final OutputStream output;
+	private final PositionBinary codec;
+	private final byte[] record;
+
+	/** Writes the header for positions of a given codec to a stream. */
+	public BinaryPositionWriter(OutputStream output, PositionBinary codec) throws IOException {
+		Dimensions dimensions = codec.getDimensions();
+		// the header has a byte for each, anything bigger would be read back
+		// as something else
+		if (dimensions.boardWidth > 255 || dimensions.boardHeight > 255) {
+			throw new IllegalArgumentException("board is too big for the header");
+		}
+		if (codec.getQueensPerColor() > 255) {
+			throw new IllegalArgumentException("too many queens per color for the header");
+		}
+		this.output = new BufferedOutputStream(output, 1 << 16);
+		this.codec = codec;
+		this.record = new byte[codec.recordSize()];
+		this.output.write(MAGIC);
+		this.output.write(VERSION);
+		this.output.write(dimensions.boardWidth);
+		this.output.write(dimensions.boardHeight);
+		this.output.write(codec.getQueensPerColor());
+	}
+
+	/** Writes a position. */
+	public void write(Board board) throws IOException {
+		codec.encode(board, record, 0);
+		output.write(record);
+	}
+
+	/** Writes any buffered positions to the stream. */
+	public void flush() throws IOException {
+		output.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		output.close();
+	}
+
+}
@@ -0,0 +1,60 @@
+package ubc.cosc322.engine.codec;
+
+import ubc.cosc322.engine.core.Dimensions;
+import ubc.cosc322.engine.core.Move;
+import ubc.cosc322.engine.core.MoveType;
+
+/**
+ * A notation for single moves that doesn't depend on the board layout, so
+ * moves can be passed between boards with different layouts. Squares are
+ * zero based "x,y" like the arrow source in position notation. A queen move
+ * is written as its source and destination, "x,y-x,y", and an arrow move is
+ * just the square the arrow lands on.
+ */
+public class MoveText {
+
+	private MoveText() {}
+
+	/** Writes a move of a given type in move notation. */
+	public static String encode(Dimensions dimensions, MoveType type, int move) {
+		StringBuilder builder = new StringBuilder();
+		if (type == MoveType.QUEEN) {
+			appendSquare(dimensions, Move.decodeQueenSource(move), builder);
+			builder.append('-');
+			appendSquare(dimensions, Move.decodeQueenDestination(move), builder);
+		} else {
+			appendSquare(dimensions, move, builder);
+		}
+		return builder.toString();
+	}
+
+	/** Reads a move from move notation, queen moves are told apart by the '-'. */
+	public static int decode(Dimensions dimensions, String text) {
+		int dash = text.indexOf('-');
+		if (dash == -1) {
+			return parseSquare(dimensions, text);
+		}
+		return Move.encodeQueenMove(
+			parseSquare(dimensions, text.substring(0, dash)),
+			parseSquare(dimensions, text.substring(dash + 1))
+		);
+	}
+
+	private static void appendSquare(Dimensions dimensions, int position, StringBuilder builder) {
+		builder.append(dimensions.x(position)).append(',').append(dimensions.y(position));
+	}
+
+	private static int parseSquare(Dimensions dimensions, String text) {
+		int comma = text.indexOf(',');
+		if (comma == -1) {
+			throw new IllegalArgumentException("invalid square '" + text + "'");
+		}
+		int x = Integer.parseInt(text.substring(0, comma));
+		int y = Integer.parseInt(text.substring(comma + 1));
+		if (x < 0 || y < 0 || x >= dimensions.boardWidth || y >= dimensions.boardHeight) {
+			throw new IllegalArgumentException("square is off the board");
+		}
+		return dimensions.position(x, y);
+	}
+
+}
@@ -0,0 +1,186 @@
+package ubc.cosc322.engine.codec;
+
+import ubc.cosc322.engine.core.Board;
+import ubc.cosc322.engine.core.Color;
+import ubc.cosc322.engine.core.Dimensions;
+import ubc.cosc322.engine.core.MoveType;
+import ubc.cosc322.engine.core.Piece;
+
+/**
+ * A fixed size binary encoding of positions with given dimensions and number
+ * of queens per color. Every position takes recordSize() bytes, so files of
+ * positions can be read in bulk or indexed directly. A record is laid out as:
+ *
+ * <pre>
+ * 1 byte   flags, bit 0 set when black is to move, bit 1 when an arrow is expected
+ * 2 bytes  the square of the queen that has to shoot, 0xFFFF if none
+ * 4 bytes  the move count
+ * 2 bytes  per white queen square, 0xFFFF for queens that aren't there
+ * 2 bytes  per black queen square, likewise
+ * n bytes  one bit per square, set where there is an arrow
+ * </pre>
+ *
+ * Squares are numbered x + y*boardWidth, which doesn't depend on the board
+ * layout. Multi-byte values are big endian.
+ */
+public class PositionBinary {
+
+	private static final int FLAG_BLACK_TO_MOVE = 1;
+	private static final int FLAG_ARROW_MOVE = 2;
+	private static final int NO_SQUARE = 0xFFFF;
+
+	private final Dimensions dimensions;
+	private final int queensPerColor;
+	private final int recordSize;
+
+	/** Creates a codec for positions with given dimensions and queens per color. */
+	public PositionBinary(Dimensions dimensions, int queensPerColor) {
+		this.dimensions = dimensions;
+		this.queensPerColor = queensPerColor;
+		this.recordSize = 7 + 4*queensPerColor + (dimensions.boardSize + 7) / 8;
+	}
+
+	/** The dimensions of positions this codec reads and writes. */
+	public Dimensions getDimensions() {
+		return dimensions;
+	}
+
+	/** The number of queens per color this codec has room for. */
+	public int getQueensPerColor() {
+		return queensPerColor;
+	}
+
+	/** The number of bytes in every record. */
+	public int recordSize() {
+		return recordSize;
+	}
+
+	/** Writes a board as a record into a buffer at an offset. */
+	public void encode(Board board, byte[] buffer, int offset) {
+		if (board.dimensions.boardWidth != dimensions.boardWidth || board.dimensions.boardHeight != dimensions.boardHeight) {
+			throw new IllegalArgumentException("board dimensions don't match codec");
+		}
+		int flags = 0;
+		if (board.getColorToMove() == Color.BLACK) {
+			flags |= FLAG_BLACK_TO_MOVE;
+		}
+		if (board.getNextMoveType() == MoveType.ARROW) {
+			flags |= FLAG_ARROW_MOVE;
+		}
+		buffer[offset] = (byte) flags;
+		int source = board.getArrowSource();
+		writeShort(buffer, offset + 1, source == -1 ? NO_SQUARE : square(source));
+		writeInt(buffer, offset + 3, board.getMoveCount());
+		int whiteOffset = offset + 7;
+		int blackOffset = whiteOffset + 2*queensPerColor;
+		int arrowOffset = blackOffset + 2*queensPerColor;
+		int whiteCount = 0;
+		int blackCount = 0;
+		for (int i = arrowOffset; i < offset + recordSize; i++) {
+			buffer[i] = 0;
+		}
+		// queens are found on the board rather than the queen lists, since
+		// trapped queens are removed from the lists but stay on the board
+		for (int y = 0; y < dimensions.boardHeight; y++) {
+			for (int x = 0; x < dimensions.boardWidth; x++) {
+				int square = x + y*dimensions.boardWidth;
+				switch (board.getPiece(board.dimensions.position(x, y))) {
+					case Piece.WHITE_QUEEN:
+						if (whiteCount == queensPerColor) {
+							throw new IllegalArgumentException("too many white queens for codec");
+						}
+						writeShort(buffer, whiteOffset + 2*whiteCount++, square);
+						break;
+					case Piece.BLACK_QUEEN:
+						if (blackCount == queensPerColor) {
+							throw new IllegalArgumentException("too many black queens for codec");
+						}
+						writeShort(buffer, blackOffset + 2*blackCount++, square);
+						break;
+					case Piece.ARROW:
+						buffer[arrowOffset + (square >> 3)] |= 1 << (square & 7);
+						break;
+				}
+			}
+		}
+		for (; whiteCount < queensPerColor; whiteCount++) {
+			writeShort(buffer, whiteOffset + 2*whiteCount, NO_SQUARE);
+		}
+		for (; blackCount < queensPerColor; blackCount++) {
+			writeShort(buffer, blackOffset + 2*blackCount, NO_SQUARE);
+		}
+	}
+
+	/** Reads a board from a record in a buffer at an offset. */
+	public Board decode(byte[] buffer, int offset) {
+		Board board = new Board(dimensions, queensPerColor);
+		int flags = buffer[offset];
+		int source = readShort(buffer, offset + 1);
+		int moveCount = readInt(buffer, offset + 3);
+		int whiteOffset = offset + 7;
+		int blackOffset = whiteOffset + 2*queensPerColor;
+		int arrowOffset = blackOffset + 2*queensPerColor;
+		for (int i = 0; i < queensPerColor; i++) {
+			int white = readShort(buffer, whiteOffset + 2*i);
+			if (white != NO_SQUARE) {
+				board.placeQueen(Color.WHITE, position(white));
+			}
+			int black = readShort(buffer, blackOffset + 2*i);
+			if (black != NO_SQUARE) {
+				board.placeQueen(Color.BLACK, position(black));
+			}
+		}
+		for (int i = arrowOffset; i < offset + recordSize; i++) {
+			int bits = buffer[i] & 0xFF;
+			while (bits != 0) {
+				int square = ((i - arrowOffset) << 3) + Integer.numberOfTrailingZeros(bits);
+				board.placeArrow(position(square));
+				bits &= bits - 1;
+			}
+		}
+		board.loadState(
+			(flags & FLAG_BLACK_TO_MOVE) != 0 ? Color.BLACK : Color.WHITE,
+			(flags & FLAG_ARROW_MOVE) != 0 ? MoveType.ARROW : MoveType.QUEEN,
+			source == NO_SQUARE ? -1 : position(source),
+			moveCount
+		);
+		return board;
+	}
+
+	private int square(int position) {
+		return dimensions.x(position) + dimensions.y(position)*dimensions.boardWidth;
+	}
+
+	private int position(int square) {
+		if (square >= dimensions.boardSize) {
+			throw new IllegalArgumentException("square is off the board");
+		}
+		return dimensions.position(square % dimensions.boardWidth, square / dimensions.boardWidth);
+	}
+
+	private static void writeShort(byte[] buffer, int offset, int value) {
+		buffer[offset] = (byte) (value >>> 8);
+		buffer[offset + 1] = (byte) value;
+	}
+
+	private static void writeInt(byte[] buffer, int offset, int value) {
+		buffer[offset] = (byte) (value >>> 24);
+		buffer[offset + 1] = (byte) (value >>> 16);
+		buffer[offset + 2] = (byte) (value >>> 8);
+		buffer[offset + 3] = (byte) value;
+	}
+
+	private static int readShort(byte[] buffer, int offset) {
+		return ((buffer[offset] & 0xFF) << 8) | (buffer[offset + 1] & 0xFF);
+	}
+
+	private static int readInt(byte[] buffer, int offset) {
+		return (
+			((buffer[offset] & 0xFF) << 24) |
+			((buffer[offset + 1] & 0xFF) << 16) |
+			((buffer[offset + 2] & 0xFF) << 8) |
+			(buffer[offset + 3] & 0xFF)
+		);
+	}
+
+}
@@ -0,0 +1,227 @@
+package ubc.cosc322.engine.codec;
+
+import ubc.cosc322.engine.core.Board;
+import ubc.cosc322.engine.core.Color;
+import ubc.cosc322.engine.core.Dimensions;
+import ubc.cosc322.engine.core.MoveType;
+import ubc.cosc322.engine.core.Piece;
+
+/**
+ * A compact single line notation for positions, similar to FEN in chess.
+ * A position is written as five space separated fields:
+ *
+ * <pre>
+ * rows side type source moveCount
+ * </pre>
+ *
+ * Rows are separated by '/' from the top of the board down, like toString.
+ * In a row 'W' is a white queen, 'B' is a black queen, 'x' is an arrow and a
+ * number is a run of empty positions. Side is 'w' or 'b' and type is 'q' or
+ * 'a' for the move type expected. Source is the queen that has to shoot when
+ * an arrow is expected, as zero based "x,y", otherwise '-'. The standard
+ * starting position is:
+ *
+ * <pre>
+ * 3B2B3/10/10/B8B/10/10/W8W/10/10/3W2W3 w q - 0
+ * </pre>
+ */
+public class PositionText {
+
+	private PositionText() {}
+
+	/** Writes a board in position notation. */
+	public static String encode(Board board) {
+		StringBuilder builder = new StringBuilder();
+		encode(board, builder);
+		return builder.toString();
+	}
+
+	/** Appends a board in position notation to a builder. */
+	public static void encode(Board board, StringBuilder builder) {
+		Dimensions dimensions = board.dimensions;
+		for (int y = dimensions.boardHeight - 1; y >= 0; y--) {
+			int empty = 0;
+			for (int x = 0; x < dimensions.boardWidth; x++) {
+				byte piece = board.getPiece(dimensions.position(x, y));
+				if (piece == Piece.NONE) {
+					empty++;
+					continue;
+				}
+				if (empty != 0) {
+					builder.append(empty);
+					empty = 0;
+				}
+				switch (piece) {
+					case Piece.WHITE_QUEEN:
+						builder.append('W');
+						break;
+					case Piece.BLACK_QUEEN:
+						builder.append('B');
+						break;
+					case Piece.ARROW:
+						builder.append('x');
+						break;
+				}
+			}
+			if (empty != 0) {
+				builder.append(empty);
+			}
+			if (y != 0) {
+				builder.append('/');
+			}
+		}
+		builder.append(board.getColorToMove() == Color.WHITE ? " w" : " b");
+		builder.append(board.getNextMoveType() == MoveType.QUEEN ? " q " : " a ");
+		int source = board.getArrowSource();
+		if (source == -1) {
+			builder.append('-');
+		} else {
+			builder.append(dimensions.x(source)).append(',').append(dimensions.y(source));
+		}
+		builder.append(' ').append(board.getMoveCount());
+	}
+
+	/** Reads a board from position notation, creating new dimensions for it. */
+	public static Board decode(String text) {
+		int[] size = measure(text);
+		return decode(text, new Dimensions(size[0], size[1]));
+	}
+
+	/**
+	 * Reads a board from position notation with existing dimensions, which
+	 * avoids the cost of creating dimensions when loading many positions.
+	 * The board can hold the default number of queens, or more if needed.
+	 */
+	public static Board decode(String text, Dimensions dimensions) {
+		String[] fields = text.trim().split(" ");
+		if (fields.length != 5) {
+			throw new IllegalArgumentException("position must have 5 fields separated by single spaces");
+		}
+		String[] rows = fields[0].split("/", -1);
+		if (rows.length != dimensions.boardHeight) {
+			throw new IllegalArgumentException("position has the wrong number of rows");
+		}
+		int whiteQueens = 0;
+		int blackQueens = 0;
+		for (int i = 0; i < fields[0].length(); i++) {
+			char c = fields[0].charAt(i);
+			if (c == 'W') {
+				whiteQueens++;
+			} else if (c == 'B') {
+				blackQueens++;
+			}
+		}
+		int queensPerColor = Math.max(Board.DEFAULT_QUEENS_PER_COLOR, Math.max(whiteQueens, blackQueens));
+		Board board = new Board(dimensions, queensPerColor);
+		for (int r = 0; r < rows.length; r++) {
+			String row = rows[r];
+			int y = dimensions.boardHeight - 1 - r;
+			int x = 0;
+			int i = 0;
+			while (i < row.length()) {
+				char c = row.charAt(i);
+				if (c >= '0' && c <= '9') {
+					int empty = 0;
+					while (i < row.length() && row.charAt(i) >= '0' && row.charAt(i) <= '9') {
+						empty = 10*empty + (row.charAt(i) - '0');
+						i++;
+					}
+					x += empty;
+					continue;
+				}
+				if (x >= dimensions.boardWidth) {
+					throw new IllegalArgumentException("row " + r + " is too long");
+				}
+				int position = dimensions.position(x, y);
+				switch (c) {
+					case 'W':
+						board.placeQueen(Color.WHITE, position);
+						break;
+					case 'B':
+						board.placeQueen(Color.BLACK, position);
+						break;
+					case 'x':
+						board.placeArrow(position);
+						break;
+					default:
+						throw new IllegalArgumentException("invalid piece '" + c + "'");
+				}
+				x++;
+				i++;
+			}
+			if (x != dimensions.boardWidth) {
+				throw new IllegalArgumentException("row " + r + " has the wrong length");
+			}
+		}
+		Color colorToMove;
+		switch (fields[1]) {
+			case "w":
+				colorToMove = Color.WHITE;
+				break;
+			case "b":
+				colorToMove = Color.BLACK;
+				break;
+			default:
+				throw new IllegalArgumentException("invalid side to move");
+		}
+		MoveType nextMoveType;
+		switch (fields[2]) {
+			case "q":
+				nextMoveType = MoveType.QUEEN;
+				break;
+			case "a":
+				nextMoveType = MoveType.ARROW;
+				break;
+			default:
+				throw new IllegalArgumentException("invalid move type");
+		}
+		int source = -1;
+		if (!fields[3].equals("-")) {
+			int comma = fields[3].indexOf(',');
+			if (comma == -1) {
+				throw new IllegalArgumentException("invalid arrow source");
+			}
+			int x = Integer.parseInt(fields[3].substring(0, comma));
+			int y = Integer.parseInt(fields[3].substring(comma + 1));
+			if (x < 0 || y < 0 || x >= dimensions.boardWidth || y >= dimensions.boardHeight) {
+				throw new IllegalArgumentException("arrow source is off the board");
+			}
+			source = dimensions.position(x, y);
+		}
+		board.loadState(colorToMove, nextMoveType, source, Integer.parseInt(fields[4]));
+		return board;
+	}
+
+	/** Gets the width and height of the board in position notation. */
+	public static int[] measure(String text) {
+		String rows = text.trim();
+		int end = rows.indexOf(' ');
+		if (end != -1) {
+			rows = rows.substring(0, end);
+		}
+		int width = 0;
+		int height = 1;
+		int i = 0;
+		while (i < rows.length() && rows.charAt(i) != '/') {
+			char c = rows.charAt(i);
+			if (c >= '0' && c <= '9') {
+				int empty = 0;
+				while (i < rows.length() && rows.charAt(i) >= '0' && rows.charAt(i) <= '9') {
+					empty = 10*empty + (rows.charAt(i) - '0');
+					i++;
+				}
+				width += empty;
+			} else {
+				width++;
+				i++;
+			}
+		}
+		for (; i < rows.length(); i++) {
+			if (rows.charAt(i) == '/') {
+				height++;
+			}
+		}
+		return new int[] { width, height };
+	}
+
+}
@@ -0,0 +1,54 @@
+package ubc.cosc322.engine.codec;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+import ubc.cosc322.engine.core.Board;
+import ubc.cosc322.engine.core.Dimensions;
+
+/**
+ * Streams positions in from position notation, one per line. Blank lines and
+ * lines starting with '#' are skipped. Positions of different sizes can be
+ * mixed, dimensions are only created when the size changes.
+ */
+public class TextPositionReader implements Closeable {
+
+	private final BufferedReader input;
+	private final boolean sentinels;
+	private Dimensions dimensions;
+
+	public TextPositionReader(Reader input) {
+		this(input, false);
+	}
+
+	/** Optionally loads positions into boards with the sentinel layout. */
+	public TextPositionReader(Reader input, boolean sentinels) {
+		this.input = new BufferedReader(input, 1 << 16);
+		this.sentinels = sentinels;
+	}
+
+	/** Reads the next position, or returns null at the end of the stream. */
+	public Board read() throws IOException {
+		String line;
+		do {
+			line = input.readLine();
+			if (line == null) {
+				return null;
+			}
+			line = line.trim();
+		} while (line.isEmpty() || line.charAt(0) == '#');
+		int[] size = PositionText.measure(line);
+		if (dimensions == null || dimensions.boardWidth != size[0] || dimensions.boardHeight != size[1]) {
+			dimensions = new Dimensions(size[0], size[1], sentinels);
+		}
+		return PositionText.decode(line, dimensions);
+	}
+
+	@Override
+	public void close() throws IOException {
+		input.close();
+	}
+
+}
@@ -0,0 +1,39 @@
+package ubc.cosc322.engine.codec;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+
+import ubc.cosc322.engine.core.Board;
+
+/** Streams positions out in position notation, one per line. See PositionText. */
+public class TextPositionWriter implements Closeable {
+
+	private final BufferedWriter output;
+	private final StringBuilder line;
+
+	public TextPositionWriter(Writer output) {
+		this.output = new BufferedWriter(output, 1 << 16);
+		this.line = new StringBuilder();
+	}
+
+	/** Writes a position as a line. */
+	public void write(Board board) throws IOException {
+		line.setLength(0);
+		PositionText.encode(board, line);
+		line.append('\n');
+		output.append(line);
+	}
+
+	/** Writes any buffered positions to the stream. */
+	public void flush() throws IOException {
+		output.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		output.close();
+	}
+
+}
@@ -0,0 +1,158 @@
+package ubc.cosc322.engine.core;
+
+/**
+ * A set of board positions stored as bits in an array of longs. Bit indices
+ * are the same integer positions used by Board and Dimensions, so the padding
+ * columns of the board array are present in the bitboard as well. Padding bits
+ * are never set in a board mask, so they act as a wall for shifted rays.
+ */
+public final class Bitboard {
+
+	// the words that store the bits, bit i is at words[i >> 6]
+	// package private so the board can use them directly in hot loops
+	final long[] words;
+
+	/** Creates an empty bitboard big enough for the dimensions. */
+	public Bitboard(Dimensions dimensions) {
+		this.words = new long[dimensions.bitboardWords];
+	}
+
+	/** Copy constructor. */
+	public Bitboard(Bitboard other) {
+		this.words = other.words.clone();
+	}
+
+	/** Adds a position to the set. */
+	public void set(int position) {
+		words[position >> 6] |= 1L << position;
+	}
+
+	/** Removes a position from the set. */
+	public void clear(int position) {
+		words[position >> 6] &= ~(1L << position);
+	}
+
+	/** Whether a position is in the set. */
+	public boolean get(int position) {
+		return (words[position >> 6] & (1L << position)) != 0;
+	}
+
+	/** Removes all positions from the set. */
+	public void clearAll() {
+		for (int i = 0; i < words.length; i++) {
+			words[i] = 0;
+		}
+	}
+
+	/** Whether the set has no positions. */
+	public boolean isEmpty() {
+		for (int i = 0; i < words.length; i++) {
+			if (words[i] != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** The number of positions in the set. */
+	public int count() {
+		int count = 0;
+		for (int i = 0; i < words.length; i++) {
+			count += Long.bitCount(words[i]);
+		}
+		return count;
+	}
+
+	/** Gets the lowest position in the set that is >= from, or -1 if none. */
+	public int nextSetBit(int from) {
+		int index = from >> 6;
+		if (index >= words.length) {
+			return -1;
+		}
+		long word = words[index] & (-1L << from);
+		while (true) {
+			if (word != 0) {
+				return (index << 6) + Long.numberOfTrailingZeros(word);
+			}
+			if (++index == words.length) {
+				return -1;
+			}
+			word = words[index];
+		}
+	}
+
+	/** Makes this set equal to another set. */
+	public void copy(Bitboard other) {
+		System.arraycopy(other.words, 0, words, 0, words.length);
+	}
+
+	/** Intersection with another set. */
+	public void and(Bitboard other) {
+		for (int i = 0; i < words.length; i++) {
+			words[i] &= other.words[i];
+		}
+	}
+
+	/** Union with another set. */
+	public void or(Bitboard other) {
+		for (int i = 0; i < words.length; i++) {
+			words[i] |= other.words[i];
+		}
+	}
+
+	/** Removes all positions that are in another set. */
+	public void andNot(Bitboard other) {
+		for (int i = 0; i < words.length; i++) {
+			words[i] &= ~other.words[i];
+		}
+	}
+
+	/**
+	 * Makes this set equal to another set with every position moved by an
+	 * offset. Bits shifted past either end are dropped. The other set may be
+	 * this set. Bits beyond the board array may be set by a left shift, so
+	 * results should always be masked before they are used.
+	 */
+	public void shift(Bitboard other, int offset) {
+		long[] source = other.words;
+		if (offset >= 0) {
+			int wordShift = offset >> 6;
+			int bitShift = offset & 63;
+			// iterate downwards so an in place shift doesn't clobber itself
+			for (int i = words.length - 1; i >= 0; i--) {
+				int j = i - wordShift;
+				long word = 0;
+				if (j >= 0) {
+					word = source[j] << bitShift;
+					if (bitShift != 0 && j > 0) {
+						word |= source[j-1] >>> (64 - bitShift);
+					}
+				}
+				words[i] = word;
+			}
+		} else {
+			offset = -offset;
+			int wordShift = offset >> 6;
+			int bitShift = offset & 63;
+			// iterate upwards so an in place shift doesn't clobber itself
+			for (int i = 0; i < words.length; i++) {
+				int j = i + wordShift;
+				long word = 0;
+				if (j < words.length) {
+					word = source[j] >>> bitShift;
+					if (bitShift != 0 && j + 1 < words.length) {
+						word |= source[j+1] << (64 - bitShift);
+					}
+				}
+				words[i] = word;
+			}
+		}
+	}
+
+	/** Copies the bitboard. */
+	@Override
+	public Bitboard clone() {
+		return new Bitboard(this);
+	}
+
+}
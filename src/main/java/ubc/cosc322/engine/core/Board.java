@@ -1,5 +1,8 @@
 package ubc.cosc322.engine.core;
 
+import java.util.Arrays;
+import java.util.random.RandomGenerator;
+
 import ubc.cosc322.engine.analysis.ChamberAnalyzer;
 import ubc.cosc322.engine.util.ConsoleColors;
 import ubc.cosc322.engine.util.IntList;
@@ -7,7 +10,8 @@ import ubc.cosc322.engine.util.IntList;
 /** A mutable board state for the game of amazons. */
 public class Board {
 
-	public static final int MAX_QUEENS_PER_COLOR = 4;
+	/** The number of queens each color has in a standard game. */
+	public static final int DEFAULT_QUEENS_PER_COLOR = 4;
 
 	/** The dimensions of the board. Public because Dimensions is immutable. */
 	public final Dimensions dimensions;
@@ -17,6 +21,22 @@ public class Board {
 	// the dimensions of this array consistent with the Dimensions object.
 	private byte[] board;
 
+	// bitboards mirroring the byte board, see Bitboard.java
+	// these let moves be generated with precomputed ray masks
+	private Bitboard occupied;
+	private Bitboard arrows;
+	private Bitboard whiteQueenBits;
+	private Bitboard blackQueenBits;
+
+	// precomputed rays from the dimensions, see Dimensions.getRayMasks()
+	private final long[] rayMasks;
+
+	// scratch bitboard used for reachable positions, this is never copied
+	private Bitboard reachBuffer;
+
+	// scratch buffer for sampling arrows, this is never copied
+	private int[] sampleRays;
+
 	// whether white or black is expected to move next
 	private Color colorToMove;
 
@@ -26,11 +46,29 @@ public class Board {
 	// note: 2 moves occur per turn
 	private int moveCount;
 
+	// zobrist hash of the position, updated incrementally with every change
+	private final Zobrist zobrist;
+	private long hash;
+
 	// shortcuts to the positions of queens
 	// this is a performance optimization
 	private IntList blackQueens;
 	private IntList whiteQueens;
 
+	// the most queens each color can have on this board
+	private final int queensPerColor;
+
+	// the number of vacant positions along each ray of each queen, indexed
+	// by queenIndex*Direction.COUNT + direction, parallel to the queen lists.
+	// together with the queen positions these are the reachable positions of
+	// every queen. they are kept up to date with every change to the board,
+	// only queens with a ray through a changed position need updating.
+	// undoing moves just marks them stale, they are recomputed when next
+	// needed, so a search that undoes many moves at once pays for it once.
+	private int[] whiteQueenRays;
+	private int[] blackQueenRays;
+	private boolean queenRaysStale;
+
 	// optional chamber analyzer variables
 	// they are very useful, but not always needed
 	// chambersUpdated flag allows it to be lazily updated
@@ -41,56 +79,147 @@ public class Board {
 	private IntList allChambers;
 
 	// stores the positions related to the most recent moves
-	// undoing moves is not required so a stack isn't needed
 	private int lastQueenSource, lastQueenDestination, lastArrowMove;
 
+	// a log of everything needed to undo moves, see undoMove()
+	// each entry is HISTORY_STRIDE ints, a header and three values
+	private int[] history;
+	private int historySize;
+
+	// history entry kinds, stored in the low bits of the entry header
+	// the previous color to move and move type are packed above them
+	private static final int HISTORY_STRIDE = 4;
+	private static final int HISTORY_QUEEN = 0;
+	private static final int HISTORY_ARROW = 1;
+	private static final int HISTORY_QUEEN_REMOVED = 2;
+	private static final int HISTORY_KIND_MASK = 3;
+
+	// cached because values() allocates a new array every call
+	private static final Color[] COLORS = Color.values();
+	private static final MoveType[] MOVE_TYPES = MoveType.values();
+
 	/** Creates a blank board, no arrows, no queen. */
 	public Board(Dimensions dimensions) {
+		this(dimensions, DEFAULT_QUEENS_PER_COLOR);
+	}
+
+	/** Creates a blank board that can hold up to queensPerColor queens of each color. */
+	public Board(Dimensions dimensions, int queensPerColor) {
+		if (queensPerColor < 1) {
+			throw new IllegalArgumentException("queens per color must be at least 1");
+		}
 		this.dimensions = dimensions;
+		this.queensPerColor = queensPerColor;
 		this.board = new byte[dimensions.arraySize];
+		this.zobrist = dimensions.getZobrist();
+		this.rayMasks = dimensions.getRayMasks();
+		this.occupied = new Bitboard(dimensions);
+		this.arrows = new Bitboard(dimensions);
+		this.whiteQueenBits = new Bitboard(dimensions);
+		this.blackQueenBits = new Bitboard(dimensions);
+		if (dimensions.sentinels) {
+			for (int position = 0; position < dimensions.arraySize; position++) {
+				if (dimensions.outOfBounds(position)) {
+					board[position] = Piece.WALL;
+				}
+			}
+		}
 		this.colorToMove = Color.WHITE;
 		this.nextMoveType = MoveType.QUEEN;
 		this.moveCount = 0;
-		this.whiteQueens = new IntList(MAX_QUEENS_PER_COLOR);
-		this.blackQueens = new IntList(MAX_QUEENS_PER_COLOR);
+		this.whiteQueens = new IntList(queensPerColor);
+		this.blackQueens = new IntList(queensPerColor);
+		this.whiteQueenRays = new int[queensPerColor*Direction.COUNT];
+		this.blackQueenRays = new int[queensPerColor*Direction.COUNT];
 		this.lastQueenSource = -1;
 		this.lastQueenDestination = -1;
 		this.lastArrowMove = -1;
+		this.hash = stateKey();
+		this.history = new int[16*HISTORY_STRIDE];
+		this.historySize = 0;
 		this.chamberAnalyzer = new ChamberAnalyzer(dimensions);
+		allocateScratchBuffers();
 	}
 
 	/** Creates a standard game of amazons board. */
 	public Board() {
 		this(new Dimensions(10, 10));
-		placeQueen(Color.WHITE, dimensions.position(0, 3));
-		placeQueen(Color.WHITE, dimensions.position(3, 0));
-		placeQueen(Color.WHITE, dimensions.position(6, 0));
-		placeQueen(Color.WHITE, dimensions.position(9, 3));
-		placeQueen(Color.BLACK, dimensions.position(0, 6));
-		placeQueen(Color.BLACK, dimensions.position(3, 9));
-		placeQueen(Color.BLACK, dimensions.position(6, 9));
-		placeQueen(Color.BLACK, dimensions.position(9, 6));
+		placeStartingQueens();
+	}
+
+	/**
+	 * Creates a board in the starting position of a game with any dimensions
+	 * and number of queens. With 10x10 dimensions and 4 queens this is the
+	 * standard starting position.
+	 */
+	public static Board startingPosition(Dimensions dimensions, int queensPerColor) {
+		if (queensPerColor > dimensions.boardWidth) {
+			throw new IllegalArgumentException("too many queens for board width");
+		}
+		Board board = new Board(dimensions, queensPerColor);
+		board.placeStartingQueens();
+		return board;
+	}
+
+	// spreads the queens evenly across the board width, the outer queens are a
+	// third of the way up the board and the inner queens are on the back rank.
+	// black mirrors white vertically.
+	private void placeStartingQueens() {
+		int w = dimensions.boardWidth;
+		int h = dimensions.boardHeight;
+		for (int i = 0; i < queensPerColor; i++) {
+			int x = queensPerColor == 1 ? w / 2 : i * (w - 1) / (queensPerColor - 1);
+			int y = (i == 0 || i == queensPerColor - 1) ? (h - 1) / 3 : 0;
+			placeQueen(Color.WHITE, dimensions.position(x, y));
+			placeQueen(Color.BLACK, dimensions.position(x, h - 1 - y));
+		}
 	}
 
 	/** Copy contructor. */
 	public Board(Board other) {
 		this.dimensions = other.dimensions;
+		this.queensPerColor = other.queensPerColor;
 		this.colorToMove = other.colorToMove;
 		this.nextMoveType = other.nextMoveType;
 		this.lastQueenSource = other.lastQueenSource;
 		this.lastQueenDestination = other.lastQueenDestination;
 		this.lastArrowMove = other.lastArrowMove;
 		this.moveCount = other.moveCount;
+		this.zobrist = other.zobrist;
+		this.hash = other.hash;
+		this.history = other.history.clone();
+		this.historySize = other.historySize;
 		this.board = other.board.clone();
+		this.rayMasks = other.rayMasks;
+		this.occupied = other.occupied.clone();
+		this.arrows = other.arrows.clone();
+		this.whiteQueenBits = other.whiteQueenBits.clone();
+		this.blackQueenBits = other.blackQueenBits.clone();
 		this.chamberAnalyzer = other.chamberAnalyzer.clone();
 		this.whiteQueens = other.whiteQueens.clone();
 		this.blackQueens = other.blackQueens.clone();
+		this.whiteQueenRays = other.whiteQueenRays.clone();
+		this.blackQueenRays = other.blackQueenRays.clone();
+		this.queenRaysStale = other.queenRaysStale;
+		allocateScratchBuffers();
+	}
+
+	private void allocateScratchBuffers() {
+		this.reachBuffer = new Bitboard(dimensions);
+		this.sampleRays = new int[Direction.COUNT];
 	}
 
 	/** Places a new queen of color at position. */
 	public void placeQueen(Color color, int position) {
+		if (getQueens(color).size() == queensPerColor) {
+			throw new IllegalStateException("too many queens of color");
+		}
 		placePiece(Piece.queenOfColor(color), position);
-		getQueens(color).push(position);
+		IntList queens = getQueens(color);
+		queens.push(position);
+		if (!queenRaysStale) {
+			computeQueenRays(color, queens.size() - 1);
+		}
 	}
 
 	/** Places a new arrow at position. */
@@ -110,6 +239,22 @@ public class Board {
 		// 	throw new IllegalArgumentException("position is not empty");
 		// }
 		board[position] = piece;
+		hash ^= zobrist.pieceKey(piece, position);
+		occupied.set(position);
+		switch (piece) {
+			case Piece.WHITE_QUEEN:
+				whiteQueenBits.set(position);
+				break;
+			case Piece.BLACK_QUEEN:
+				blackQueenBits.set(position);
+				break;
+			case Piece.ARROW:
+				arrows.set(position);
+				break;
+		}
+		if (!queenRaysStale) {
+			occupyQueenRays(position);
+		}
 	}
 
 	/** Modify board state with move, move type in assumed. */
@@ -119,16 +264,19 @@ public class Board {
 
 	/** Modify board state with move, move type in explicit. */
 	public void doMove(MoveType type, int move) {
+		hash ^= stateKey();
 		moveCount++;
 		switch (type) {
 			case QUEEN:
 				int queenSource = Move.decodeQueenSource(move);
 				int queenDestination = Move.decodeQueenDestination(move);
+				pushHistory(HISTORY_QUEEN, move, lastQueenSource, lastQueenDestination);
 				updateQueenPosition(queenSource, queenDestination);
 				lastQueenSource = queenSource;
 				lastQueenDestination = queenDestination;
 				break;
 			case ARROW:
+				pushHistory(HISTORY_ARROW, move, lastArrowMove, 0);
 				placeArrow(move);
 				lastArrowMove = move;
 				colorToMove = colorToMove.opposite();
@@ -137,6 +285,101 @@ public class Board {
 				throw new IllegalArgumentException("Illegal move type");
 		}
 		nextMoveType = type.next();
+		hash ^= stateKey();
+	}
+
+	// the part of the hash that isn't pieces, it is removed and added back
+	// around any change to the color to move, move type or last queen moved
+	private long stateKey() {
+		return zobrist.stateKey(colorToMove, nextMoveType, lastQueenDestination);
+	}
+
+	/** Reverts the most recent move, along with any queens that were removed
+	 *  by move generation after it was made. */
+	public void undoMove() {
+		while (historySize != 0) {
+			if (popHistory()) {
+				return;
+			}
+		}
+		throw new IllegalStateException("no move to undo");
+	}
+
+	/** Gets a mark that undoToMark can later return the board to. */
+	public int getUndoMark() {
+		return historySize;
+	}
+
+	/** Reverts moves until the board is in the state it was when the mark
+	 *  was made. Queens removed by move generation are restored as well. */
+	public void undoToMark(int mark) {
+		while (historySize > mark) {
+			popHistory();
+		}
+	}
+
+	// adds an entry to the history, growing it if needed
+	private void pushHistory(int kind, int a, int b, int c) {
+		if (historySize == history.length) {
+			history = Arrays.copyOf(history, 2*history.length);
+		}
+		history[historySize] = kind | (colorToMove.ordinal() << 2) | (nextMoveType.ordinal() << 3);
+		history[historySize+1] = a;
+		history[historySize+2] = b;
+		history[historySize+3] = c;
+		historySize += HISTORY_STRIDE;
+	}
+
+	// reverts the last history entry, returns whether it was a move
+	private boolean popHistory() {
+		queenRaysStale = true;
+		hash ^= stateKey();
+		historySize -= HISTORY_STRIDE;
+		int header = history[historySize];
+		int a = history[historySize+1];
+		int b = history[historySize+2];
+		int c = history[historySize+3];
+		switch (header & HISTORY_KIND_MASK) {
+			case HISTORY_QUEEN_REMOVED:
+				getQueens(COLORS[c]).insert(b, a);
+				hash ^= stateKey();
+				return false;
+			case HISTORY_QUEEN:
+				updateQueenPosition(Move.decodeQueenDestination(a), Move.decodeQueenSource(a));
+				lastQueenSource = b;
+				lastQueenDestination = c;
+				break;
+			case HISTORY_ARROW:
+				removeArrow(a);
+				lastArrowMove = b;
+				break;
+		}
+		moveCount--;
+		colorToMove = COLORS[(header >> 2) & 1];
+		nextMoveType = MOVE_TYPES[(header >> 3) & 1];
+		hash ^= stateKey();
+		return true;
+	}
+
+	// removes an arrow, only used to undo moves
+	private void removeArrow(int position) {
+		chamberAnalyzer.removeArrow(position);
+		// chamber analyzer needs to be recomputed, mark it as such
+		chambersUpdated = false;
+		board[position] = Piece.NONE;
+		hash ^= zobrist.pieceKey(Piece.ARROW, position);
+		occupied.clear(position);
+		arrows.clear(position);
+	}
+
+	// removes a queen that can never move again from the queen list
+	// the queen stays on the board, it is only removed to save time
+	private void removeQueen(Color color, int index) {
+		IntList queens = getQueens(color);
+		pushHistory(HISTORY_QUEEN_REMOVED, queens.get(index), index, color.ordinal());
+		int[] rays = queenRays(color);
+		System.arraycopy(rays, (index+1)*Direction.COUNT, rays, index*Direction.COUNT, (queens.size()-1-index)*Direction.COUNT);
+		queens.removeIndex(index);
 	}
 
 	/** Modify board state with turn, this can change the next move type. */
@@ -160,8 +403,90 @@ public class Board {
 		colorToMove = color;
 		board[oldPosition] = Piece.NONE;
 		board[newPosition] = queen;
+		hash ^= zobrist.pieceKey(queen, oldPosition) ^ zobrist.pieceKey(queen, newPosition);
+		occupied.clear(oldPosition);
+		occupied.set(newPosition);
+		Bitboard queenBits = getQueenBitboard(color);
+		queenBits.clear(oldPosition);
+		queenBits.set(newPosition);
+		if (!queenRaysStale) {
+			vacateQueenRays(oldPosition);
+			occupyQueenRays(newPosition);
+			if (index != -1) {
+				computeQueenRays(color, index);
+			}
+		}
+	}
+
+	// recomputes every ray of a queen from scratch
+	private void computeQueenRays(Color color, int index) {
+		int queen = getQueens(color).get(index);
+		int[] rays = queenRays(color);
+		for (int d = 0; d < Direction.COUNT; d++) {
+			rays[index*Direction.COUNT + d] = freeRayLength(queen, d);
+		}
+	}
+
+	// shortens the rays of queens that are blocked by a newly occupied position
+	private void occupyQueenRays(int position) {
+		updateQueenRays(whiteQueens, whiteQueenRays, position, true);
+		updateQueenRays(blackQueens, blackQueenRays, position, true);
+	}
+
+	// extends the rays of queens that were blocked by a newly vacant position
+	private void vacateQueenRays(int position) {
+		updateQueenRays(whiteQueens, whiteQueenRays, position, false);
+		updateQueenRays(blackQueens, blackQueenRays, position, false);
+	}
+
+	// the only ray of a queen that can pass through a position is the one in
+	// the direction of the position, if it is in line with the queen at all
+	private void updateQueenRays(IntList queens, int[] rays, int position, boolean occupy) {
+		for (int i = 0; i < queens.size(); i++) {
+			int alignment = dimensions.alignment(queens.get(i), position);
+			if (alignment == -1) {
+				continue;
+			}
+			int d = alignment & 7;
+			int distance = alignment >> 3;
+			int ray = i*Direction.COUNT + d;
+			if (occupy) {
+				if (distance <= rays[ray]) {
+					rays[ray] = distance - 1;
+				}
+			} else if (distance == rays[ray] + 1) {
+				rays[ray] = distance + freeRayLength(position, d);
+			}
+		}
+	}
+
+	// gets the rays of the queens of a color, recomputing them if stale
+	private int[] getQueenRays(Color color) {
+		if (queenRaysStale) {
+			queenRaysStale = false;
+			for (int i = 0; i < whiteQueens.size(); i++) {
+				computeQueenRays(Color.WHITE, i);
+			}
+			for (int i = 0; i < blackQueens.size(); i++) {
+				computeQueenRays(Color.BLACK, i);
+			}
+		}
+		return queenRays(color);
 	}
 
+	// gets the rays of the queens of a color as they are
+	private int[] queenRays(Color color) {
+		switch (color) {
+			case WHITE:
+				return whiteQueenRays;
+			case BLACK:
+				return blackQueenRays;
+			default:
+				throw new IllegalArgumentException("invalid color");
+		}
+	}
+
+
 	/** Returns queen position for a given color. */
 	public IntList getQueens(Color color) {
 		// TODO: make these returns immutable
@@ -175,6 +500,74 @@ public class Board {
 		}
 	}
 
+	/** Returns a bitboard of the queens of a given color. Must not be modified. */
+	public Bitboard getQueenBitboard(Color color) {
+		switch (color) {
+			case WHITE:
+				return whiteQueenBits;
+			case BLACK:
+				return blackQueenBits;
+			default:
+				throw new IllegalArgumentException("invalid color");
+		}
+	}
+
+	/** Returns a bitboard of all the arrows. Must not be modified. */
+	public Bitboard getArrowBitboard() {
+		return arrows;
+	}
+
+	/** Returns a bitboard of all the queens and arrows. Must not be modified. */
+	public Bitboard getOccupiedBitboard() {
+		return occupied;
+	}
+
+	/** Gets the zobrist hash of the position. It covers the pieces, the color
+	 *  to move, the move type and the queen that is to shoot an arrow. */
+	public long getHash() {
+		return hash;
+	}
+
+	/** Recomputes the zobrist hash from scratch, getHash() should be equal. */
+	public long computeHash() {
+		long hash = stateKey();
+		for (int y = 0; y < dimensions.boardHeight; y++) {
+			for (int x = 0; x < dimensions.boardWidth; x++) {
+				int position = dimensions.position(x, y);
+				hash ^= zobrist.pieceKey(board[position], position);
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * Sets whose move it is, the type of move expected and the move count, for
+	 * loading positions. When an arrow move is expected, arrowSource is the
+	 * queen that has to shoot it, otherwise it is ignored. Can only be used
+	 * before any moves are made, since moves before it can't be undone.
+	 */
+	public void loadState(Color colorToMove, MoveType nextMoveType, int arrowSource, int moveCount) {
+		if (historySize != 0) {
+			throw new IllegalStateException("state can only be loaded before moves are made");
+		}
+		if (nextMoveType == MoveType.ARROW && !getQueens(colorToMove).contains(arrowSource)) {
+			throw new IllegalArgumentException("arrow source must be a queen of the color to move");
+		}
+		hash ^= stateKey();
+		this.colorToMove = colorToMove;
+		this.nextMoveType = nextMoveType;
+		this.moveCount = moveCount;
+		this.lastQueenSource = -1;
+		this.lastQueenDestination = nextMoveType == MoveType.ARROW ? arrowSource : -1;
+		this.lastArrowMove = -1;
+		hash ^= stateKey();
+	}
+
+	/** Gets the queen that has to shoot an arrow, or -1 if a queen move is expected. */
+	public int getArrowSource() {
+		return nextMoveType == MoveType.ARROW ? lastQueenDestination : -1;
+	}
+
 	/** Number of moves/half-turns since the Board object was created. */
 	public int getMoveCount() {
 		return moveCount;
@@ -193,24 +586,182 @@ public class Board {
 	/** Outputs positions that can be reached orthogonally or diagonally from a
 	 *  given position. */
 	public void trace(int source, IntList output) {
+		if (dimensions.sentinels) {
+			// the border stops every ray, so only one test is needed per step
+			for (int d = 0; d < Direction.COUNT; d++) {
+				int offset = dimensions.getDirectionOffset(d);
+				for (int p = source + offset; board[p] == Piece.NONE; p += offset) {
+					output.push(p);
+				}
+			}
+			return;
+		}
+		if (rayMasks == null) {
+			// too big for ray masks, walk each ray up to the edge of the board
+			for (int d = 0; d < Direction.COUNT; d++) {
+				int offset = dimensions.getDirectionOffset(d);
+				int p = source + offset;
+				for (int n = dimensions.getRayLength(source, d); n > 0 && board[p] == Piece.NONE; n--, p += offset) {
+					output.push(p);
+				}
+			}
+			return;
+		}
+		reach(source, reachBuffer);
+		long[] words = reachBuffer.words;
+		for (int w = 0; w < words.length; w++) {
+			// bit scan, each iteration clears the lowest set bit
+			for (long bits = words[w]; bits != 0; bits &= bits - 1) {
+				output.push((w << 6) + Long.numberOfTrailingZeros(bits));
+			}
+		}
+	}
+
+	/** Outputs the set of positions that can be reached orthogonally or
+	 *  diagonally from a given position. The output is overwritten. */
+	public void reach(int source, Bitboard output) {
+		output.clearAll();
+		if (rayMasks != null) {
+			rayMaskReach(source, output.words);
+		} else {
+			for (int d = 0; d < Direction.COUNT; d++) {
+				int offset = dimensions.getDirectionOffset(d);
+				int p = source + offset;
+				for (int n = dimensions.getRayLength(source, d); n > 0 && board[p] == Piece.NONE; n--, p += offset) {
+					output.set(p);
+				}
+			}
+		}
+	}
+
+	/** Counts the positions that can be reached orthogonally or diagonally
+	 *  from a given position. */
+	public int mobility(int source) {
+		if (dimensions.sentinels) {
+			int mobility = 0;
+			for (int d = 0; d < Direction.COUNT; d++) {
+				int offset = dimensions.getDirectionOffset(d);
+				for (int p = source + offset; board[p] == Piece.NONE; p += offset) {
+					mobility++;
+				}
+			}
+			return mobility;
+		}
+		if (rayMasks == null) {
+			int mobility = 0;
+			for (int d = 0; d < Direction.COUNT; d++) {
+				int offset = dimensions.getDirectionOffset(d);
+				int p = source + offset;
+				for (int n = dimensions.getRayLength(source, d); n > 0 && board[p] == Piece.NONE; n--, p += offset) {
+					mobility++;
+				}
+			}
+			return mobility;
+		}
+		reach(source, reachBuffer);
+		return reachBuffer.count();
+	}
+
+	// adds the reachable positions in each direction to the output using the
+	// precomputed ray masks. the first occupied position along a ray is found
+	// with a bit scan, the ray beyond it is masked off with its own ray mask.
+	// in directions with a positive offset positions increase along the ray,
+	// so the first blocker is the lowest set bit, otherwise it is the highest.
+	private void rayMaskReach(int source, long[] output) {
+		long[] occupiedWords = occupied.words;
+		int words = output.length;
 		for (int d = 0; d < Direction.COUNT; d++) {
-			int offset = dimensions.getDirectionOffset(d);
-			int position = source + offset;
-			while (!dimensions.outOfBounds(position) && board[position] == Piece.NONE) {
-				output.push(position);
-				position += offset;
+			int base = (source*Direction.COUNT + d)*words;
+			int blocker = -1;
+			if (dimensions.getDirectionOffset(d) > 0) {
+				for (int w = 0; w < words; w++) {
+					long blocked = rayMasks[base + w] & occupiedWords[w];
+					if (blocked != 0) {
+						blocker = (w << 6) + Long.numberOfTrailingZeros(blocked);
+						break;
+					}
+				}
+			} else {
+				for (int w = words - 1; w >= 0; w--) {
+					long blocked = rayMasks[base + w] & occupiedWords[w];
+					if (blocked != 0) {
+						blocker = (w << 6) + 63 - Long.numberOfLeadingZeros(blocked);
+						break;
+					}
+				}
+			}
+			if (blocker == -1) {
+				for (int w = 0; w < words; w++) {
+					output[w] |= rayMasks[base + w];
+				}
+			} else {
+				int blockerBase = (blocker*Direction.COUNT + d)*words;
+				for (int w = 0; w < words; w++) {
+					output[w] |= rayMasks[base + w] & ~rayMasks[blockerBase + w] & ~occupiedWords[w];
+				}
 			}
 		}
 	}
 
+	// the number of vacant positions along a ray before it is blocked
+	private int freeRayLength(int source, int d) {
+		int offset = dimensions.getDirectionOffset(d);
+		if (dimensions.sentinels) {
+			int length = 0;
+			for (int p = source + offset; board[p] == Piece.NONE; p += offset) {
+				length++;
+			}
+			return length;
+		}
+		if (rayMasks == null) {
+			int length = 0;
+			int p = source + offset;
+			for (int n = dimensions.getRayLength(source, d); n > 0 && board[p] == Piece.NONE; n--, p += offset) {
+				length++;
+			}
+			return length;
+		}
+		// find the first blocker like rayMaskReach, the ray stops just before it
+		long[] occupiedWords = occupied.words;
+		int words = occupiedWords.length;
+		int base = (source*Direction.COUNT + d)*words;
+		if (offset > 0) {
+			for (int w = 0; w < words; w++) {
+				long blocked = rayMasks[base + w] & occupiedWords[w];
+				if (blocked != 0) {
+					int blocker = (w << 6) + Long.numberOfTrailingZeros(blocked);
+					return rayDistance(source, blocker, offset) - 1;
+				}
+			}
+		} else {
+			for (int w = words - 1; w >= 0; w--) {
+				long blocked = rayMasks[base + w] & occupiedWords[w];
+				if (blocked != 0) {
+					int blocker = (w << 6) + 63 - Long.numberOfLeadingZeros(blocked);
+					return rayDistance(source, blocker, offset) - 1;
+				}
+			}
+		}
+		return dimensions.getRayLength(source, d);
+	}
+
+	// the steps between two positions on the same ray, without dividing.
+	// rays that aren't horizontal take one step per row.
+	private int rayDistance(int from, int to, int offset) {
+		if (offset == 1 || offset == -1) {
+			return Math.abs(to - from);
+		}
+		return Math.abs((to >> dimensions.arrayHeightShift) - (from >> dimensions.arrayHeightShift));
+	}
+
 	// used to check whether queen is completely surrounded
 	private boolean surroundedByArrows(int position) {
 		for (int d = 0; d < Direction.COUNT; d++) {
-			int offset = dimensions.getDirectionOffset(d);
-			int adjacent = position + offset;
-			if (!dimensions.outOfBounds(adjacent)) {
-				byte piece = board[adjacent];
-				if (piece != Piece.ARROW) {
+			// walls only exist in sentinel layouts, so there is no need
+			// to check the ray length when they are being used
+			if (dimensions.sentinels || dimensions.getRayLength(position, d) != 0) {
+				byte piece = board[position + dimensions.getDirectionOffset(d)];
+				if (piece != Piece.ARROW && piece != Piece.WALL) {
 					return false;
 				}
 			}
@@ -218,6 +769,78 @@ public class Board {
 		return true;
 	}
 
+	/**
+	 * Picks a uniformly random legal move without generating every move, or
+	 * returns -1 if there are none. Only the free length of each ray is
+	 * counted, then a position along one of the rays is chosen in proportion
+	 * to its length. Assumes move type. Like generateMoves, queens that are
+	 * found to be trapped by arrows are removed.
+	 */
+	public int sampleMove(RandomGenerator random) {
+		switch (nextMoveType) {
+			case QUEEN:
+				return sampleQueenMove(random);
+			case ARROW:
+				return sampleArrowMove(random);
+			default:
+				throw new IllegalStateException("illegal move type");
+		}
+	}
+
+	private int sampleQueenMove(RandomGenerator random) {
+		IntList queensToMove = getQueens(colorToMove);
+		int[] rays = getQueenRays(colorToMove);
+		int total = 0;
+		for (int q = queensToMove.size() - 1; q >= 0; q--) {
+			int queenTotal = 0;
+			for (int d = 0; d < Direction.COUNT; d++) {
+				queenTotal += rays[q*Direction.COUNT + d];
+			}
+			if (queenTotal == 0 && surroundedByArrows(queensToMove.get(q))) {
+				removeQueen(colorToMove, q);
+			}
+			total += queenTotal;
+		}
+		if (total == 0) {
+			return -1;
+		}
+		int choice = random.nextInt(total);
+		for (int q = 0; q < queensToMove.size(); q++) {
+			for (int d = 0; d < Direction.COUNT; d++) {
+				int length = rays[q*Direction.COUNT + d];
+				if (choice < length) {
+					int queen = queensToMove.get(q);
+					return Move.encodeQueenMove(queen, queen + (choice + 1)*dimensions.getDirectionOffset(d));
+				}
+				choice -= length;
+			}
+		}
+		throw new IllegalStateException("sampled past the last move");
+	}
+
+	private int sampleArrowMove(RandomGenerator random) {
+		int source = lastQueenDestination;
+		int index = getQueens(colorToMove).search(source);
+		int total = 0;
+		for (int d = 0; d < Direction.COUNT; d++) {
+			// the queen that just moved has cached rays
+			int length = index == -1 ? freeRayLength(source, d) : getQueenRays(colorToMove)[index*Direction.COUNT + d];
+			sampleRays[d] = length;
+			total += length;
+		}
+		if (total == 0) {
+			return -1;
+		}
+		int choice = random.nextInt(total);
+		for (int d = 0; d < Direction.COUNT; d++) {
+			if (choice < sampleRays[d]) {
+				return source + (choice + 1)*dimensions.getDirectionOffset(d);
+			}
+			choice -= sampleRays[d];
+		}
+		throw new IllegalStateException("sampled past the last move");
+	}
+
 	/** Outputs all legal moves, assumes move type. */
 	public void generateMoves(IntList output) {
 		switch (nextMoveType) {
@@ -235,35 +858,148 @@ public class Board {
 	/** Outputs all legal moves, assumes move type. */
 	public void generateQueenMoves(IntList output) {
 		IntList queensToMove = getQueens(colorToMove);
+		int[] rays = getQueenRays(colorToMove);
 		for (int q = queensToMove.size() - 1; q >= 0; q--) {
-			int outputBase = output.size();
 			int queen = queensToMove.get(q);
-			trace(queen, output);
-			if (output.size() == outputBase && surroundedByArrows(queen)) {
-				queensToMove.removeIndex(q);
-			}
-			for (int i = outputBase; i < output.size(); i++) {
-				output.set(i, Move.encodeQueenMove(queen, output.get(i)));
+			if (pushCachedQueenMoves(queen, rays, q, output) == 0 && surroundedByArrows(queen)) {
+				removeQueen(colorToMove, q);
 			}
 		}
 	}
 
 	/** Outputs all legal moves, assumes move type. */
 	public void generateQueenMoves(int position, IntList output) {
-		int outputBase = output.size();
-		trace(position, output);
-		if (output.size() == outputBase && surroundedByArrows(position)) {
-			Color color = Piece.colorOfQueen(board[position]);
-			getQueens(color).removeValue(position);
+		Color color = Piece.colorOfQueen(board[position]);
+		int index = color == null ? -1 : getQueens(color).search(position);
+		if (index == -1) {
+			pushQueenMoves(position, output);
+			return;
 		}
-		for (int i = outputBase; i < output.size(); i++) {
-			output.set(i, Move.encodeQueenMove(position, output.get(i)));
+		if (pushCachedQueenMoves(position, getQueenRays(color), index, output) == 0 && surroundedByArrows(position)) {
+			removeQueen(color, index);
+		}
+	}
+
+	// outputs every move a queen in the queen lists can make using its
+	// cached rays, returns how many were output
+	private int pushCachedQueenMoves(int queen, int[] rays, int index, IntList output) {
+		int count = 0;
+		for (int d = 0; d < Direction.COUNT; d++) {
+			int offset = dimensions.getDirectionOffset(d);
+			int length = rays[index*Direction.COUNT + d];
+			int p = queen;
+			for (int n = 0; n < length; n++) {
+				p += offset;
+				output.push(Move.encodeQueenMove(queen, p));
+			}
+			count += length;
 		}
+		return count;
+	}
+
+	// outputs every move a queen can make, returns how many were output
+	private int pushQueenMoves(int queen, IntList output) {
+		int outputBase = output.size();
+		if (dimensions.sentinels) {
+			for (int d = 0; d < Direction.COUNT; d++) {
+				int offset = dimensions.getDirectionOffset(d);
+				for (int p = queen + offset; board[p] == Piece.NONE; p += offset) {
+					output.push(Move.encodeQueenMove(queen, p));
+				}
+			}
+		} else if (rayMasks == null) {
+			for (int d = 0; d < Direction.COUNT; d++) {
+				int offset = dimensions.getDirectionOffset(d);
+				int p = queen + offset;
+				for (int n = dimensions.getRayLength(queen, d); n > 0 && board[p] == Piece.NONE; n--, p += offset) {
+					output.push(Move.encodeQueenMove(queen, p));
+				}
+			}
+		} else {
+			reach(queen, reachBuffer);
+			long[] words = reachBuffer.words;
+			for (int w = 0; w < words.length; w++) {
+				for (long bits = words[w]; bits != 0; bits &= bits - 1) {
+					output.push(Move.encodeQueenMove(queen, (w << 6) + Long.numberOfTrailingZeros(bits)));
+				}
+			}
+		}
+		return output.size() - outputBase;
 	}
 
 	/** Outputs all legal moves, assumes move type. */
 	private void generateArrowMoves(int position, IntList output) {
-		trace(position, output);
+		// the arrow is shot by the queen that just moved, so its rays are cached
+		int index = getQueens(colorToMove).search(position);
+		if (index == -1) {
+			trace(position, output);
+			return;
+		}
+		int[] rays = getQueenRays(colorToMove);
+		for (int d = 0; d < Direction.COUNT; d++) {
+			int offset = dimensions.getDirectionOffset(d);
+			int length = rays[index*Direction.COUNT + d];
+			int p = position;
+			for (int n = 0; n < length; n++) {
+				p += offset;
+				output.push(p);
+			}
+		}
+	}
+
+	/** Checks whether a queen move is legal, assuming a queen move is
+	 *  expected. Only the ray between the two positions is walked. */
+	public boolean isLegalQueenMove(int move) {
+		if (nextMoveType != MoveType.QUEEN) {
+			return false;
+		}
+		int source = Move.decodeQueenSource(move);
+		int destination = Move.decodeQueenDestination(move);
+		if (dimensions.outOfBounds(source) || dimensions.outOfBounds(destination)) {
+			return false;
+		}
+		return board[source] == Piece.queenOfColor(colorToMove) && clearRay(source, destination, -1);
+	}
+
+	/** Checks whether an arrow move is legal, assuming an arrow move is
+	 *  expected. Only the ray between the queen and the arrow is walked. */
+	public boolean isLegalArrow(int position) {
+		if (nextMoveType != MoveType.ARROW || dimensions.outOfBounds(position)) {
+			return false;
+		}
+		return clearRay(lastQueenDestination, position, -1);
+	}
+
+	/** Checks whether a whole turn is legal without modifying the board,
+	 *  assuming it is the start of a turn. */
+	public boolean isLegalTurn(Turn turn) {
+		if (!isLegalQueenMove(turn.queenMove)) {
+			return false;
+		}
+		int arrow = turn.arrowMove;
+		if (dimensions.outOfBounds(arrow)) {
+			return false;
+		}
+		// the queen has left its source, so the arrow can pass through or land on it
+		return clearRay(turn.getQueenDestination(), arrow, turn.getQueenSource());
+	}
+
+	// whether two positions are in line with nothing between them and nothing
+	// at the second, ignoring a position that is about to be vacated
+	private boolean clearRay(int from, int to, int vacated) {
+		int alignment = dimensions.alignment(from, to);
+		if (alignment == -1) {
+			return false;
+		}
+		int offset = dimensions.getDirectionOffset(alignment & 7);
+		int p = from;
+		for (int steps = alignment >> 3; steps > 0; steps--) {
+			p += offset;
+			if (board[p] != Piece.NONE && p != vacated) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	/** Gets a piece in at a board position. Use dimensions.position(x,y).
@@ -272,12 +1008,28 @@ public class Board {
 		return board[position];
 	}
 
+	/** Gets the number of positions a queen can move to, by its index in
+	 *  getQueens. This is kept up to date as moves are made, so it is free. */
+	public int getQueenMobility(Color color, int index) {
+		int[] rays = getQueenRays(color);
+		int mobility = 0;
+		for (int d = 0; d < Direction.COUNT; d++) {
+			mobility += rays[index*Direction.COUNT + d];
+		}
+		return mobility;
+	}
+
+	/** Gets the most queens each color can have on this board. */
+	public int getQueensPerColor() {
+		return queensPerColor;
+	}
+
 	/** Gets the max number of moves that could be return by generateMoves.
 	 *  Move type is assumed. */
 	public int getMaxMoves() {
 		switch (nextMoveType) {
 			case QUEEN:
-				return MAX_QUEENS_PER_COLOR*dimensions.maxTrace;
+				return queensPerColor*dimensions.maxTrace;
 			case ARROW:
 				return dimensions.maxTrace;
 			default:
@@ -285,9 +1037,29 @@ public class Board {
 		}
 	}
 
+	/**
+	 * Counts the arrows that could be shot after a queen move, without doing
+	 * the move. The board must be expecting a queen move.
+	 */
+	public int countArrowMoves(int queenMove) {
+		int source = Move.decodeQueenSource(queenMove);
+		int destination = Move.decodeQueenDestination(queenMove);
+		int towardsSource = dimensions.alignment(destination, source);
+		int count = 0;
+		for (int d = 0; d < Direction.COUNT; d++) {
+			int length = freeRayLength(destination, d);
+			// the source will be vacant, so the ray back through it carries on
+			if (towardsSource == (d | (length + 1) << 3)) {
+				length += 1 + freeRayLength(source, d);
+			}
+			count += length;
+		}
+		return count;
+	}
+
 	/** Gets the max number of moves that could be return by generateMoves. */
 	public int getMaxMovesAbsolute() {
-		return MAX_QUEENS_PER_COLOR*dimensions.maxTrace;
+		return queensPerColor*dimensions.maxTrace;
 	}
 
 	/** Updates the state of all chamber related variables, if needed. */
@@ -297,17 +1069,17 @@ public class Board {
 		}
 		// these variables are null when the board is constructed.
 		if (whiteChambers == null) {
-			whiteChambers = new IntList(MAX_QUEENS_PER_COLOR);
+			whiteChambers = new IntList(queensPerColor);
 		} else {
 			whiteChambers.clear();
 		}
 		if (blackChambers == null) {
-			blackChambers = new IntList(MAX_QUEENS_PER_COLOR);
+			blackChambers = new IntList(queensPerColor);
 		} else {
 			blackChambers.clear();
 		}
 		if (allChambers == null) {
-			allChambers = new IntList(2*MAX_QUEENS_PER_COLOR);
+			allChambers = new IntList(2*queensPerColor);
 		} else {
 			allChambers.clear();
 		}
@@ -462,7 +1234,7 @@ public class Board {
 	/** A hacky way to load strings as boards for testing. */
 	public Board(Dimensions dimensions, Color colorToMove, String boardString) {
 		this(dimensions);
-		this.colorToMove = colorToMove;
+		loadState(colorToMove, MoveType.QUEEN, -1, 0);
 		boolean nextCharCouldBePiece = false;
 		int x = 0;
 		int y = dimensions.boardHeight - 1;
@@ -1,5 +1,7 @@
 package ubc.cosc322.engine.core;
 
+import java.util.Arrays;
+
 /** A class to help with math related to positions on the board. */
 public final class Dimensions {
 
@@ -15,6 +17,9 @@ public final class Dimensions {
 	/** The total size of the array that stores the board. */
 	public final int arraySize;
 
+	/** The number of bits needed to store any position in the board array. */
+	public final int positionBits;
+
 	/** A mask that can anded with a index to get the x coordinate. */
 	public final int arrayWidthMask;
 
@@ -24,29 +29,82 @@ public final class Dimensions {
 	/** The maximum number of positions that can be reached orthogonally and diagonally from a position */
 	public final int maxTrace;
 
+	/**
+	 * Whether the board array has a border of sentinel positions around the
+	 * board. Rows are already padded out to arrayWidth, so the padding columns
+	 * act as the left and right border. The left border of a row is the padding
+	 * at the end of the row below, so two rows are added below the board to
+	 * cover the bottom left corner, and one row is added above. Boards fill the
+	 * border with Piece.WALL, so a ray can be walked until it hits anything that
+	 * isn't empty without any bounds checks.
+	 */
+	public final boolean sentinels;
+
+	// the position of (0,0), offset by the border rows when sentinels are used
+	private final int originOffset;
+
+	/** The number of longs in a bitboard for these dimensions. */
+	public final int bitboardWords;
+
 	/** Array of direction offsets for. */
 	private final int[] directionOffsets;
 
+	// the bits of all the positions that are on the board
+	private final Bitboard boardMask;
+
+	// for every position and direction, the bitboard words of the positions
+	// along that ray, not including the position itself.
+	// indexed by (position*Direction.COUNT + direction)*bitboardWords
+	// null when bitboards are too big, see MAX_RAY_MASK_BITBOARD_WORDS
+	private final long[] rayMasks;
+
+	// the biggest bitboards ray masks are built for. scanning a ray mask
+	// touches every word of the bitboard, so on bigger boards it is faster to
+	// walk rays in the byte board instead. 4 words fits boards up to 15x16.
+	private static final int MAX_RAY_MASK_BITBOARD_WORDS = 4;
+
+	// keys for hashing positions with these dimensions
+	private final Zobrist zobrist;
+
+	// for every position and direction, how many steps can be taken before
+	// leaving the board, indexed by position*Direction.COUNT + direction
+	private final byte[] rayLengths;
+
+	// for every coordinate difference between two positions, the direction
+	// from the first to the second and the number of steps between them, as
+	// direction | steps << 3, or -1 if they aren't in line. indexed by
+	// (dy + boardHeight - 1)*(2*boardWidth - 1) + dx + boardWidth - 1
+	private final int[] alignments;
+
 
 	/** Creates a dimensions object with given axis. */
 	public Dimensions(int boardWidth, int boardHeight) {
+		this(boardWidth, boardHeight, false);
+	}
+
+	/** Creates a dimensions object with given axis, and optionally a border
+	 *  of sentinel positions around the board. */
+	public Dimensions(int boardWidth, int boardHeight, boolean sentinels) {
 		if (boardWidth < 4) {
 			throw new IllegalArgumentException("board width must be at least 4");
 		}
 		if (boardHeight < 4) {
 			throw new IllegalArgumentException("board height must be at least 4");
 		}
-		if (boardWidth > 32) {
-			throw new IllegalArgumentException("board width must be no more than 32");
+		// positions must fit in the 16 bits moves give them, and ray lengths
+		// must fit in a byte, 128x128 satisfies both
+		if (boardWidth > 128) {
+			throw new IllegalArgumentException("board width must be no more than 128");
 		}
-		if (boardHeight > 32) {
-			throw new IllegalArgumentException("board height must be no more than 32");
+		if (boardHeight > 128) {
+			throw new IllegalArgumentException("board height must be no more than 128");
 		}
 		this.boardSize = boardWidth * boardHeight;
 		this.boardWidth = boardWidth;
 		this.boardHeight = boardHeight;
 		this.maxTrace = boardHeight + boardWidth + 2 * Math.min(boardHeight, boardWidth) - 4;
-		this.arrayHeight = boardHeight;
+		this.sentinels = sentinels;
+		this.arrayHeight = sentinels ? boardHeight + 3 : boardHeight;
 		int arrayWidth = 1;
 		int arrayHeightShift = 0;
 		while (boardWidth != 0) {
@@ -56,8 +114,10 @@ public final class Dimensions {
 		}
 		this.arrayWidth = arrayWidth;
 		this.arraySize = arrayWidth * arrayHeight;
+		this.positionBits = 32 - Integer.numberOfLeadingZeros(arraySize - 1);
 		this.arrayHeightShift = arrayHeightShift;
 		this.arrayWidthMask = arrayWidth - 1;
+		this.originOffset = sentinels ? 2 * arrayWidth : 0;
 		Direction[] directions = Direction.values();
 		this.directionOffsets = new int[directions.length];
 		for (int i = 0; i < directions.length; i++) {
@@ -66,6 +126,61 @@ public final class Dimensions {
 				directions[i].y * arrayWidth
 			);
 		}
+		this.bitboardWords = (arraySize + 63) >> 6;
+		this.boardMask = new Bitboard(this);
+		for (int y = 0; y < this.boardHeight; y++) {
+			for (int x = 0; x < this.boardWidth; x++) {
+				boardMask.set(position(x, y));
+			}
+		}
+		this.rayLengths = new byte[arraySize * directions.length];
+		for (int y = 0; y < this.boardHeight; y++) {
+			for (int x = 0; x < this.boardWidth; x++) {
+				for (int d = 0; d < directions.length; d++) {
+					int length = 0;
+					int rx = x + directions[d].x;
+					int ry = y + directions[d].y;
+					while (rx >= 0 && ry >= 0 && rx < this.boardWidth && ry < this.boardHeight) {
+						length++;
+						rx += directions[d].x;
+						ry += directions[d].y;
+					}
+					rayLengths[position(x, y)*directions.length + d] = (byte) length;
+				}
+			}
+		}
+		this.alignments = new int[(2*this.boardWidth - 1) * (2*this.boardHeight - 1)];
+		Arrays.fill(alignments, -1);
+		for (int d = 0; d < directions.length; d++) {
+			for (int steps = 1; steps < Math.max(this.boardWidth, this.boardHeight); steps++) {
+				int dx = directions[d].x * steps;
+				int dy = directions[d].y * steps;
+				if (Math.abs(dx) < this.boardWidth && Math.abs(dy) < this.boardHeight) {
+					alignments[(dy + this.boardHeight - 1)*(2*this.boardWidth - 1) + dx + this.boardWidth - 1] = d | (steps << 3);
+				}
+			}
+		}
+		if (bitboardWords <= MAX_RAY_MASK_BITBOARD_WORDS) {
+			this.rayMasks = new long[arraySize * directions.length * bitboardWords];
+			for (int y = 0; y < this.boardHeight; y++) {
+				for (int x = 0; x < this.boardWidth; x++) {
+					for (int d = 0; d < directions.length; d++) {
+						int base = (position(x, y)*directions.length + d)*bitboardWords;
+						int rx = x + directions[d].x;
+						int ry = y + directions[d].y;
+						while (rx >= 0 && ry >= 0 && rx < this.boardWidth && ry < this.boardHeight) {
+							int ray = position(rx, ry);
+							rayMasks[base + (ray >> 6)] |= 1L << ray;
+							rx += directions[d].x;
+							ry += directions[d].y;
+						}
+					}
+				}
+			}
+		} else {
+			this.rayMasks = null;
+		}
+		this.zobrist = new Zobrist(this);
 	}
 
 	/** Converts an integer position to an x coordinate. */
@@ -75,17 +190,47 @@ public final class Dimensions {
 
 	/** Converts an integer position to a y coordinate. */
 	public int y(int position) {
-		return position >> arrayHeightShift;
+		return (position - originOffset) >> arrayHeightShift;
 	}
 
 	/** Converts x and y coordinates to an integer position. */
 	public int position(int x, int y) {
-		return x + y * arrayWidth;
+		return x + y * arrayWidth + originOffset;
 	}
 
 	/** Determines whether an integer position is within the board. */
 	public boolean outOfBounds(int position) {
-		return position < 0 || position >= arraySize || x(position) >= boardWidth;
+		return position < originOffset || position >= originOffset + boardHeight * arrayWidth || x(position) >= boardWidth;
+	}
+
+	/** Gets the number of steps that can be taken from a position in a
+	 *  direction before leaving the board. */
+	public int getRayLength(int position, int direction) {
+		return rayLengths[position*Direction.COUNT + direction];
+	}
+
+	/** Gets the direction from one position to another as direction | steps << 3,
+	 *  where steps is the distance between them, or -1 if they aren't in line. */
+	public int alignment(int from, int to) {
+		int dx = x(to) - x(from);
+		int dy = y(to) - y(from);
+		return alignments[(dy + boardHeight - 1)*(2*boardWidth - 1) + dx + boardWidth - 1];
+	}
+
+	/** Gets a bitboard of all the positions on the board. Must not be modified. */
+	public Bitboard getBoardMask() {
+		return boardMask;
+	}
+
+	/** Gets the zobrist keys for hashing positions with these dimensions. */
+	public Zobrist getZobrist() {
+		return zobrist;
+	}
+
+	/** Gets the ray mask table, or null if these dimensions are too big for it.
+	 *  Must not be modified. See the rayMasks field for the layout. */
+	long[] getRayMasks() {
+		return rayMasks;
 	}
 
 	/** Gets one of the 8 offsets than can be added to an integer position. */
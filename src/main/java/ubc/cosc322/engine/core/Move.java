@@ -20,7 +20,29 @@ public class Move {
 
 	/** Unpacks the queen destination from a queen move. */
 	public static int decodeQueenDestination(int queenMove) {
-		return queenMove >> 16;
+		return queenMove >>> 16;
+	}
+
+	/**
+	 * Packs a whole turn into a single int, with each position taking a given
+	 * number of bits, see Dimensions.positionBits. Only works for boards
+	 * where three positions fit, which is any position bits up to 10.
+	 */
+	public static int encodeTurn(int queenMove, int arrowMove, int positionBits) {
+		int queenSource = decodeQueenSource(queenMove);
+		int queenDestination = decodeQueenDestination(queenMove);
+		return (((arrowMove << positionBits) | queenDestination) << positionBits) | queenSource;
+	}
+
+	/** Unpacks the queen move from a packed turn. */
+	public static int decodeTurnQueenMove(int turn, int positionBits) {
+		int mask = (1 << positionBits) - 1;
+		return encodeQueenMove(turn & mask, (turn >>> positionBits) & mask);
+	}
+
+	/** Unpacks the arrow move from a packed turn. */
+	public static int decodeTurnArrowMove(int turn, int positionBits) {
+		return turn >>> (2*positionBits);
 	}
 
 }
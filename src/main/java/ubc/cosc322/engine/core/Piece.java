@@ -13,6 +13,9 @@ public class Piece {
 	public static final byte BLACK_QUEEN = 2;
 	public static final byte ARROW = 3;
 
+	/** A permanent blocker, only found in the border of sentinel layouts. */
+	public static final byte WALL = 4;
+
 	/** Gets the queen of a specific color. */
 	public static byte queenOfColor(Color color) {
 		switch (color) {
@@ -0,0 +1,66 @@
+package ubc.cosc322.engine.core;
+
+import java.util.SplittableRandom;
+
+/**
+ * Random keys for zobrist hashing positions of a given dimensions. A position
+ * hash is the xor of the keys of every piece on the board along with the keys
+ * for the side to move and move type. Keys are generated from a seed derived
+ * from the dimensions, so equal dimensions always produce equal hashes.
+ */
+public final class Zobrist {
+
+	// keys for each piece at each position, indexed by piece*arraySize+position
+	private final long[] pieceKeys;
+
+	// keys for the queen that has to shoot an arrow, by position
+	private final long[] arrowSourceKeys;
+
+	// xored in when black is to move
+	private final long blackToMoveKey;
+
+	// xored in when an arrow move is expected
+	private final long arrowMoveKey;
+
+	private final int arraySize;
+
+	/** Generates the keys for a set of dimensions. */
+	public Zobrist(Dimensions dimensions) {
+		this.arraySize = dimensions.arraySize;
+		SplittableRandom random = new SplittableRandom(
+			0x9E3779B97F4A7C15L * (dimensions.boardWidth * 31 + dimensions.boardHeight) ^ dimensions.arraySize
+		);
+		// piece values are small and contiguous, see Piece.java
+		this.pieceKeys = new long[(Piece.ARROW + 1) * arraySize];
+		for (int i = arraySize; i < pieceKeys.length; i++) {
+			pieceKeys[i] = random.nextLong();
+		}
+		this.arrowSourceKeys = new long[arraySize];
+		for (int i = 0; i < arraySize; i++) {
+			arrowSourceKeys[i] = random.nextLong();
+		}
+		this.blackToMoveKey = random.nextLong();
+		this.arrowMoveKey = random.nextLong();
+	}
+
+	/** The key for a piece at a position. Piece.NONE has a key of 0. */
+	public long pieceKey(byte piece, int position) {
+		return pieceKeys[piece*arraySize + position];
+	}
+
+	/** The key for the side to move, move type and which queen is to shoot. */
+	public long stateKey(Color colorToMove, MoveType nextMoveType, int arrowSource) {
+		long key = 0;
+		if (colorToMove == Color.BLACK) {
+			key ^= blackToMoveKey;
+		}
+		if (nextMoveType == MoveType.ARROW) {
+			key ^= arrowMoveKey;
+			if (arrowSource >= 0) {
+				key ^= arrowSourceKeys[arrowSource];
+			}
+		}
+		return key;
+	}
+
+}
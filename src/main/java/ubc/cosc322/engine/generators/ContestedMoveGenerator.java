@@ -17,10 +17,7 @@ public class ContestedMoveGenerator implements MoveGenerator {
 	private IntList contestedQueens;
 	private IntList uncontestQueens;
 
-	public ContestedMoveGenerator() {
-		this.contestedQueens = new IntList(Board.MAX_QUEENS_PER_COLOR);
-		this.uncontestQueens = new IntList(Board.MAX_QUEENS_PER_COLOR);
-	}
+	public ContestedMoveGenerator() {}
 
 	@Override
 	public void generateMoves(Board board, IntList output) {
@@ -32,6 +29,11 @@ public class ContestedMoveGenerator implements MoveGenerator {
 			return;
 		}
 
+		// sized lazily, boards can have any number of queens
+		if (contestedQueens == null || board.getQueensPerColor() > contestedQueens.capacity()) {
+			contestedQueens = new IntList(board.getQueensPerColor());
+			uncontestQueens = new IntList(board.getQueensPerColor());
+		}
 		contestedQueens.clear();
 		uncontestQueens.clear();
 		board.computeChambers();
@@ -1,14 +1,21 @@
 package ubc.cosc322.engine.generators;
 
+import java.util.random.RandomGenerator;
+
 import ubc.cosc322.engine.core.Board;
 import ubc.cosc322.engine.util.IntList;
 
 /** A move generator that returns all legal moves. */
-public class LegalMoveGenerator implements MoveGenerator {
+public class LegalMoveGenerator implements MoveGenerator, MoveSampler {
 
 	@Override
 	public void generateMoves(Board board, IntList output) {
 		board.generateMoves(output);
 	}
+
+	@Override
+	public int sampleMove(Board board, RandomGenerator random) {
+		return board.sampleMove(random);
+	}
 	
 }
@@ -0,0 +1,16 @@
+package ubc.cosc322.engine.generators;
+
+import java.util.random.RandomGenerator;
+
+import ubc.cosc322.engine.core.Board;
+
+/**
+ * An interface for move generators that can pick a single random move
+ * without generating all of them first.
+ */
+public interface MoveSampler {
+
+	/** Returns a random move from those the generator would output, or -1 if there are none. */
+	public int sampleMove(Board board, RandomGenerator random);
+
+}
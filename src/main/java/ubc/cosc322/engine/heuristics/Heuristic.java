@@ -8,4 +8,17 @@ public interface Heuristic {
 	/** Returns a evaluation of what color is winning. WHITE -> positive, BLACK -> negative */
 	public int evaluate(Board board);
 
+	/**
+	 * Evaluates a batch of boards, writing the evaluation of each into an
+	 * output array. Heuristics that can share work between boards, or that
+	 * are cheaper per board in bulk, should override this. By default each
+	 * board is just evaluated on its own. Boards may be changed, the same
+	 * as by evaluating them one at a time.
+	 */
+	public default void evaluate(Board[] boards, int count, int[] output) {
+		for (int i = 0; i < count; i++) {
+			output[i] = evaluate(boards[i]);
+		}
+	}
+
 }
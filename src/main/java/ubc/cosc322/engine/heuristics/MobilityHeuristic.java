@@ -10,12 +10,6 @@ import ubc.cosc322.engine.core.Board;
  **/
 public class MobilityHeuristic implements Heuristic {
 
-	IntList traceBuffer;
-
-	public MobilityHeuristic() {
-		this.traceBuffer = new IntList(35);
-	}
-
 	@Override
 	public int evaluate(Board board) {
 		int heuristic = 0;
@@ -25,9 +19,7 @@ public class MobilityHeuristic implements Heuristic {
 			int mobility = 0;
 			IntList queens = board.getQueens(color);
 			for (int i = 0; i < queens.size(); i++) {
-				board.trace(queens.get(i), traceBuffer);
-				mobility += traceBuffer.size();
-				traceBuffer.clear();
+				mobility += board.getQueenMobility(color, i);
 			}
 			// white mobility makes heuristic positive, black makes it negative
 			if (color == Color.WHITE) {
@@ -0,0 +1,228 @@
+package ubc.cosc322.engine.players;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import ubc.cosc322.engine.codec.MoveText;
+import ubc.cosc322.engine.codec.PositionText;
+import ubc.cosc322.engine.core.Board;
+import ubc.cosc322.engine.core.Turn;
+import ubc.cosc322.engine.util.IntList;
+
+/**
+ * A player that splits its search between worker processes, each running a
+ * MonteCarloPlayer on the same position, and adds up the statistics of the
+ * moves at their roots to pick a move, like root parallelism across
+ * processes. Workers are DistributedWorker processes, which could be run on
+ * other machines through ssh, and talk over their standard input and output
+ * a line at a time. The commands are:
+ *
+ * <pre>
+ * position &lt;position&gt;   search from a new position
+ * move &lt;move&gt;           do a move, keeping what has been learned below it
+ * search &lt;millis&gt;       think, then reply with the stats of the root moves
+ * quit                  exit
+ * </pre>
+ *
+ * Positions are in position notation and moves in move notation, see
+ * PositionText and MoveText. A search is answered with a line per move at
+ * the root, followed by a line with just "done":
+ *
+ * <pre>
+ * stats &lt;move&gt; &lt;evaluations&gt; &lt;rewards&gt; &lt;proof&gt;
+ * </pre>
+ *
+ * The proof is 'w' for a proven win, 'l' for a proven loss, or '-'. Workers
+ * keep searching between commands, so they think on the opponent's time.
+ * How a worker searches is set by the arguments of its command.
+ */
+public class DistributedPlayer extends Player implements AutoCloseable {
+
+	// how long to wait for a worker to exit before killing it
+	private static final long EXIT_WAIT_MILLIS = 5000;
+
+	private final ArrayList<Process> processes;
+	private final ArrayList<BufferedReader> inputs;
+	private final ArrayList<Writer> outputs;
+
+	// the amount of time the workers spend thinking when suggesting a move
+	private int thinkingMillis;
+
+	// set once a worker has broken the protocol, after which the replies
+	// can't be matched up with the commands anymore
+	private boolean failed;
+
+	/** Starts a worker process for each command. */
+	public DistributedPlayer(List<List<String>> workerCommands, int thinkingMillis) throws IOException {
+		this.processes = new ArrayList<>(workerCommands.size());
+		this.inputs = new ArrayList<>(workerCommands.size());
+		this.outputs = new ArrayList<>(workerCommands.size());
+		this.thinkingMillis = thinkingMillis;
+		for (List<String> command : workerCommands) {
+			Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+			processes.add(process);
+			inputs.add(new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.US_ASCII)));
+			outputs.add(new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.US_ASCII)));
+		}
+	}
+
+	/**
+	 * The command to start a worker process on this host, using the same java
+	 * and class path as this process. The options configure its search, as
+	 * name=value, see DistributedWorker.
+	 */
+	public static List<String> localWorkerCommand(int threads, String... options) {
+		ArrayList<String> command = new ArrayList<>(List.of(
+			Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+			"-cp", System.getProperty("java.class.path"),
+			DistributedWorker.class.getName(),
+			Integer.toString(threads)
+		));
+		command.addAll(List.of(options));
+		return command;
+	}
+
+	@Override
+	public void useBoard(Board board) {
+		super.useBoard(board);
+		sendAll("position " + PositionText.encode(board));
+	}
+
+	@Override
+	public void doMove(int move) {
+		String text = MoveText.encode(board.dimensions, board.getNextMoveType(), move);
+		super.doMove(move);
+		sendAll("move " + text);
+	}
+
+	@Override
+	public void doTurn(Turn turn) {
+		doMove(turn.queenMove);
+		doMove(turn.arrowMove);
+	}
+
+	@Override
+	public void suggestAndDoMoves(int maxMoves, IntList output) {
+		int millis = thinkingMillis;
+		while (maxMoves-- > 0) {
+			MoveStats best = MoveStats.best(search(millis));
+			if (best == null) {
+				break;
+			}
+			// the rest of the moves come from what the workers learned below
+			// the first one, like MonteCarloPlayer
+			millis = 0;
+			doMove(best.move);
+			output.push(best.move);
+		}
+	}
+
+	/**
+	 * Lets every worker think, then gets the stats of each move at the root,
+	 * added up across the workers, without doing a move. If a worker exits
+	 * or replies with something unexpected, the workers are shut down and
+	 * the player can't be used anymore.
+	 */
+	public List<MoveStats> search(int millis) {
+		sendAll("search " + millis);
+		LinkedHashMap<Integer, MoveStats> merged = new LinkedHashMap<>();
+		try {
+			for (BufferedReader input : inputs) {
+				for (String line = readLine(input); !line.equals("done"); line = readLine(input)) {
+					String[] fields = line.split(" ");
+					if (fields.length != 5 || !fields[0].equals("stats")) {
+						throw new IllegalStateException("unexpected reply from worker '" + line + "'");
+					}
+					int move = MoveText.decode(board.dimensions, fields[1]);
+					MoveStats stats = new MoveStats(
+						move,
+						Long.parseLong(fields[2]),
+						Long.parseLong(fields[3]),
+						fields[4].equals("w"),
+						fields[4].equals("l")
+					);
+					merged.merge(move, stats, MoveStats::add);
+				}
+			}
+		} catch (IOException e) {
+			fail();
+			throw new UncheckedIOException(e);
+		} catch (RuntimeException e) {
+			// the other workers' replies are still waiting to be read
+			fail();
+			throw e;
+		}
+		return new ArrayList<>(merged.values());
+	}
+
+	/** Sets the amount of time the player spends thinking. */
+	public void setThinkingTime(int thinkingMillis) {
+		this.thinkingMillis = thinkingMillis;
+	}
+
+	private static String readLine(BufferedReader input) throws IOException {
+		String line = input.readLine();
+		if (line == null) {
+			throw new IOException("worker exited");
+		}
+		return line;
+	}
+
+	private void sendAll(String command) {
+		if (failed) {
+			throw new IllegalStateException("a worker failed, the player can't be used anymore");
+		}
+		try {
+			for (Writer output : outputs) {
+				output.write(command);
+				output.write('\n');
+				output.flush();
+			}
+		} catch (IOException e) {
+			fail();
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	// gives up on every worker, since they can't be trusted to be in step
+	private void fail() {
+		failed = true;
+		for (Process process : processes) {
+			process.destroyForcibly();
+		}
+	}
+
+	@Override
+	public void close() {
+		for (int i = 0; i < processes.size(); i++) {
+			Process process = processes.get(i);
+			try {
+				outputs.get(i).write("quit\n");
+				outputs.get(i).close();
+			} catch (IOException e) {
+				// it has already exited
+			}
+			try {
+				if (!process.waitFor(EXIT_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+					process.destroyForcibly();
+				}
+			} catch (InterruptedException e) {
+				// don't leave the worker behind, and keep the interrupt
+				process.destroyForcibly();
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+}
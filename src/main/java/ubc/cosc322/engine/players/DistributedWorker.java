@@ -0,0 +1,168 @@
+package ubc.cosc322.engine.players;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.function.Supplier;
+
+import ubc.cosc322.engine.codec.MoveText;
+import ubc.cosc322.engine.codec.PositionText;
+import ubc.cosc322.engine.core.Board;
+import ubc.cosc322.engine.generators.ContestedMoveGenerator;
+import ubc.cosc322.engine.generators.LegalMoveGenerator;
+import ubc.cosc322.engine.heuristics.Heuristic;
+import ubc.cosc322.engine.heuristics.HybridRolloutHeuristic;
+import ubc.cosc322.engine.heuristics.MobilityHeuristic;
+import ubc.cosc322.engine.heuristics.RolloutHeuristic;
+import ubc.cosc322.engine.heuristics.SwitchHeuristic;
+
+/**
+ * A search worker process for DistributedPlayer. It reads commands from
+ * standard input and replies on standard output, see DistributedPlayer for
+ * the protocol. The first argument is the number of search threads, which
+ * defaults to one per core. The rest configure the search, as name=value:
+ *
+ * <pre>
+ * heuristic=rollout|hybrid|switch   the rollouts, switch is like the game client
+ * exploration=&lt;factor&gt;             the UCT exploration factor, 0.3 by default
+ * virtual-loss=&lt;losses&gt;
+ * expansion-threshold=&lt;evaluations&gt;
+ * rollouts-per-leaf=&lt;rollouts&gt;
+ * trees=&lt;count&gt;
+ * tree-memory=&lt;bytes&gt;
+ * transpositions=true|false
+ * pipeline=&lt;evaluators&gt;,&lt;batch&gt;
+ * widening=&lt;width&gt;,&lt;exponent&gt;     with a mobility prior
+ * </pre>
+ *
+ * See the setters of MonteCarloPlayer for what they do.
+ */
+public class DistributedWorker {
+
+	public static void main(String[] args) throws Exception {
+
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		BufferedReader input = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.US_ASCII));
+		Writer output = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.US_ASCII));
+
+		try (MonteCarloPlayer player = createPlayer(threads, args)) {
+			for (String line = input.readLine(); line != null; line = input.readLine()) {
+				int space = line.indexOf(' ');
+				String command = space == -1 ? line : line.substring(0, space);
+				String argument = space == -1 ? "" : line.substring(space + 1);
+				switch (command) {
+					case "position":
+						player.useBoard(PositionText.decode(argument));
+						break;
+					case "move":
+						player.doMove(MoveText.decode(player.getBoard().dimensions, argument));
+						break;
+					case "search":
+						player.setThinkingTime(Integer.parseInt(argument));
+						player.think();
+						writeRootMoveStats(player, output);
+						break;
+					case "quit":
+						return;
+					default:
+						throw new IllegalArgumentException("unknown command '" + command + "'");
+				}
+			}
+		}
+
+	}
+
+	// creates the player from the options after the number of threads
+	private static MonteCarloPlayer createPlayer(int threads, String[] args) {
+		Supplier<Heuristic> heuristic = () -> new RolloutHeuristic(new RandomPlayer(new LegalMoveGenerator()));
+		double exploration = 0.3;
+		// options for the heuristic and exploration factor are needed by the
+		// constructor, the rest go to the setters once it has been created
+		ArrayList<String[]> settings = new ArrayList<>();
+		for (int i = 1; i < args.length; i++) {
+			String[] option = args[i].split("=", 2);
+			if (option.length != 2) {
+				throw new IllegalArgumentException("expected an option of the form name=value, got '" + args[i] + "'");
+			}
+			switch (option[0]) {
+				case "heuristic":
+					heuristic = heuristicSupplier(option[1]);
+					break;
+				case "exploration":
+					exploration = Double.parseDouble(option[1]);
+					break;
+				default:
+					settings.add(option);
+			}
+		}
+		MonteCarloPlayer player = new MonteCarloPlayer(heuristic, () -> new LegalMoveGenerator(), threads, 0, exploration);
+		for (String[] option : settings) {
+			String[] values = option[1].split(",");
+			switch (option[0]) {
+				case "virtual-loss":
+					player.setVirtualLoss(Integer.parseInt(option[1]));
+					break;
+				case "expansion-threshold":
+					player.setExpansionThreshold(Integer.parseInt(option[1]));
+					break;
+				case "rollouts-per-leaf":
+					player.setRolloutsPerLeaf(Integer.parseInt(option[1]));
+					break;
+				case "trees":
+					player.setTreeCount(Integer.parseInt(option[1]));
+					break;
+				case "tree-memory":
+					player.setTreeMemory(Long.parseLong(option[1]));
+					break;
+				case "transpositions":
+					player.setTranspositions(Boolean.parseBoolean(option[1]));
+					break;
+				case "pipeline":
+					player.setEvaluationPipeline(Integer.parseInt(values[0]), Integer.parseInt(values[1]));
+					break;
+				case "widening":
+					player.setProgressiveWidening(() -> new MobilityHeuristic(), Double.parseDouble(values[0]), Double.parseDouble(values[1]));
+					break;
+				default:
+					throw new IllegalArgumentException("unknown option '" + option[0] + "'");
+			}
+		}
+		return player;
+	}
+
+	private static Supplier<Heuristic> heuristicSupplier(String name) {
+		switch (name) {
+			case "rollout":
+				return () -> new RolloutHeuristic(new RandomPlayer(new LegalMoveGenerator()));
+			case "hybrid":
+				return () -> new HybridRolloutHeuristic(new RandomPlayer(new ContestedMoveGenerator()));
+			case "switch":
+				return () -> new SwitchHeuristic(
+					60,
+					new RolloutHeuristic(new RandomPlayer(new LegalMoveGenerator())),
+					new HybridRolloutHeuristic(new RandomPlayer(new ContestedMoveGenerator()))
+				);
+			default:
+				throw new IllegalArgumentException("unknown heuristic '" + name + "'");
+		}
+	}
+
+	private static void writeRootMoveStats(MonteCarloPlayer player, Writer output) throws IOException {
+		Board board = player.getBoard();
+		for (MoveStats stats : player.getRootMoveStats()) {
+			output.write("stats ");
+			output.write(MoveText.encode(board.dimensions, board.getNextMoveType(), stats.move));
+			output.write(" " + stats.evaluations + " " + stats.rewards + " ");
+			output.write(stats.provenWin ? "w" : stats.provenLoss ? "l" : "-");
+			output.write('\n');
+		}
+		output.write("done\n");
+		output.flush();
+	}
+
+}
@@ -1,11 +1,17 @@
 package ubc.cosc322.engine.players;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.ArrayList;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Supplier;
 
 import ubc.cosc322.engine.core.Color;
+import ubc.cosc322.engine.core.Move;
 import ubc.cosc322.engine.core.MoveType;
 import ubc.cosc322.engine.core.Board;
 import ubc.cosc322.engine.core.Turn;
@@ -13,17 +19,49 @@ import ubc.cosc322.engine.generators.MoveGenerator;
 import ubc.cosc322.engine.heuristics.Heuristic;
 import ubc.cosc322.engine.util.IntList;
 
-/** A player that uses a lockless multi-threaded Monte Carlo Tree Search. */
+/**
+ * A player that uses a lockless multi-threaded Monte Carlo Tree Search. The
+ * search tree is stored in a SearchTree arena, so it takes a fixed amount of
+ * memory and doesn't create garbage as it grows. The workers can also be
+ * split between several independent trees, see setTreeCount.
+ */
 public class MonteCarloPlayer extends Player implements AutoCloseable {
 
-	// whether the worker threads should be running or not
-	private volatile boolean running;
+	/** The virtual loss used unless another is set. */
+	public static final int DEFAULT_VIRTUAL_LOSS = 1;
 
-	// the number of threads to use while running
+	// how often the main thread checks if the root has been solved while
+	// thinking, so it can stop early
+	private static final int SOLVED_POLL_MILLIS = 10;
+
+	// how long a worker waits before giving up its slice, when the root has
+	// been solved and there is nothing left to search
+	private static final long SOLVED_WAIT_NANOS = 1_000_000;
+
+	// in a turn tree, the edges for the turns of a queen move hold the turn
+	// without an arrow until the arrows are filled in, flagged as pending,
+	// with the first one also flagged so exactly one worker fills them in
+	private static final int PENDING_TURN = 1 << 31;
+	private static final int FIRST_PENDING_TURN = 1 << 30;
+
+	// how long an evaluator waits before giving up its slice, when there are
+	// no leaves to evaluate
+	private static final long EVALUATOR_WAIT_NANOS = 100_000;
+
+	// how many searches a worker does between adding up the root evaluations
+	private static final int ROOT_REFRESH_INTERVAL = 64;
+
+	// once the arena is this full, it is compacted when the root changes
+	private static final double COMPACTION_USAGE = 0.5;
+
+	// the number of workers, which is the most threads the search gets
 	private int threadCount;
 
-	// a list of worker threads, so they can be closed later
-	private ArrayList<Thread> workerThreads;
+	// runs the workers on its threads, shared with other players
+	private SearchScheduler scheduler;
+
+	// the workers while they're running, or null
+	private SearchScheduler.Job job;
 
 	// provides heuristic functions to the worker threads
 	private Supplier<Heuristic> heuristicSupplier;
@@ -40,127 +78,368 @@ public class MonteCarloPlayer extends Player implements AutoCloseable {
 	// the exploration factor to be used in UCB1/UCT
 	private double explorationFactor;
 
-	// the root node of the tree
-	// needs to volatile so worker threads can observe changes made by main
-	private volatile Node root;
+	// the number of pending evaluations a worker adds to the edges on its
+	// path, so other workers are pushed onto different paths meanwhile
+	private int virtualLoss;
 
-	// because stats are stored in arrays in the parent nodes
-	// root stats need to stored separately
-	private volatile RootStats rootStats;
+	// the number of evaluations through an edge before it gets a node
+	private int expansionThreshold;
+
+	// the number of evaluations done from each leaf a search reaches
+	private int rolloutsPerLeaf;
+
+	// the number of evaluators in the pipeline, and the most leaves they
+	// evaluate at once, no evaluators means workers evaluate their own leaves
+	private int evaluatorCount;
+	private int batchSize;
+
+	// in a pipeline, leaves waiting for an evaluator, and leaves that workers
+	// can carry on with after handing theirs over
+	private ArrayBlockingQueue<Leaf> pendingLeaves;
+	private ArrayBlockingQueue<Leaf> freeLeaves;
+
+	// provides heuristics for ordering moves with progressive widening, or
+	// null if every move is considered straight away
+	private Supplier<Heuristic> priorSupplier;
+
+	// the number of moves considered at a node with n evaluations is
+	// ceil(wideningWidth * (n + 1)^wideningExponent)
+	private double wideningWidth;
+	private double wideningExponent;
+
+	// the number of bytes to reserve for the search tree
+	private long treeMemory;
+
+	// whether nodes are shared by every path to the same position
+	private boolean transpositions;
+
+	// whether edges are whole turns instead of single moves
+	private boolean turnNodes;
+
+	// in a turn tree, the queen move of a turn that is half done, the root
+	// stays put until the arrow is done too
+	private int turnQueenMove;
+
+	// the number of independent trees, each searched by its own share of
+	// the workers, one means every worker searches the same tree
+	private int treeCount;
+
+	// the nodes and edges of each search tree
+	private SearchTree[] trees;
+
+	// the root of each tree, with the board and stats that go with it
+	// needs to volatile so worker threads can observe changes made by main
+	// the array is replaced whenever a root changes, never changed in place
+	private volatile SearchRoot[] roots;
 
 	// a stats objet that can be retrieved by other code
 	private Stats publicStats;
 
 	public MonteCarloPlayer(Supplier<Heuristic> heuristicSupplier, Supplier<MoveGenerator> moveGenSupplier, int threadCount, int thinkingMillis, double explorationFactor) {
-		this.running = false;
 		this.thinkingMillis = thinkingMillis;
 		this.explorationFactor = explorationFactor;
 		this.threadCount = threadCount;
 		this.heuristicSupplier = heuristicSupplier;
 		this.moveGenSupplier = moveGenSupplier;
 		this.rootMoveGenerator = moveGenSupplier.get();
-		this.workerThreads = new ArrayList<>(threadCount);
+		this.scheduler = SearchScheduler.getShared();
+		this.virtualLoss = DEFAULT_VIRTUAL_LOSS;
+		this.treeCount = 1;
+		this.rolloutsPerLeaf = 1;
+		this.batchSize = 1;
+		// leave room for a second player and everything else in the heap
+		this.treeMemory = Runtime.getRuntime().maxMemory() / 4;
 	}
 
 	@Override
 	public void useBoard(Board board) {
-		try {
-			close();
-		} catch (Exception e) {
-			e.printStackTrace();
+		if (turnNodes) {
+			if (3*board.dimensions.positionBits > 30) {
+				throw new IllegalArgumentException("board is too big to pack turns into edges");
+			}
+			if (board.getNextMoveType() != MoveType.QUEEN) {
+				throw new IllegalStateException("a turn tree needs a board at the start of a turn");
+			}
 		}
+		stopWorkers();
 		super.useBoard(board);
-		root = new Node(board, rootMoveGenerator);
-		rootStats = new RootStats();
-		running = true;
-		workerThreads.clear();
-		for (int i = 0; i < threadCount; i++) {
-			Thread thread = new Thread(new Worker());
-			// set the thread priority to low so it doesn't ruin main thread
-			// responsivness, which can cause problems with turn timings
-			thread.setPriority(Thread.MIN_PRIORITY);
-			thread.start();
-			workerThreads.add(thread);
+		if (trees == null) {
+			trees = new SearchTree[treeCount];
+			for (int i = 0; i < treeCount; i++) {
+				trees[i] = SearchTree.withMemory(treeMemory / treeCount, transpositions);
+			}
 		}
+		resetRoot();
+		startWorkers();
 	}
 
 	@Override
 	public void doMove(int move) {
-		publicStats = new Stats(rootStats);
+		publicStats = new Stats(roots);
+		MoveType type = board.getNextMoveType();
 		super.doMove(move);
+		if (turnNodes) {
+			// the tree only has whole turns, so wait for the arrow
+			if (type == MoveType.QUEEN) {
+				turnQueenMove = move;
+				return;
+			}
+			move = Move.encodeTurn(turnQueenMove, move, board.dimensions.positionBits);
+		}
 		if (!rebase(move)) {
-			this.root = new Node(board, rootMoveGenerator);
-			this.rootStats = new RootStats();
+			stopWorkers();
+			resetRoot();
+			startWorkers();
 		}
 	}
 
 	@Override
 	public void doTurn(Turn turn) {
-		publicStats = new Stats(rootStats);
+		publicStats = new Stats(roots);
 		super.doTurn(turn);
-		if (!rebase(turn.queenMove) || !rebase(turn.arrowMove)) {
-			this.root = new Node(board, rootMoveGenerator);
-			this.rootStats = new RootStats();
+		boolean rebased;
+		if (turnNodes) {
+			rebased = rebase(Move.encodeTurn(turn.queenMove, turn.arrowMove, board.dimensions.positionBits));
+		} else {
+			rebased = rebase(turn.queenMove) && rebase(turn.arrowMove);
+		}
+		if (!rebased) {
+			stopWorkers();
+			resetRoot();
+			startWorkers();
 		}
 	}
 
-	// rebasing allows the search tree to reuse what is has already learned
+	// throws away the whole of every tree and starts again from the current
+	// board, the workers must be stopped
+	private void resetRoot() {
+		Board rootBoard = board.clone();
+		int maxMoves = rootBoard.getMaxMovesAbsolute();
+		Heuristic prior = priorSupplier == null ? null : priorSupplier.get();
+		IntList moves = new IntList(maxMoves);
+		long[] keys = new long[maxMoves];
+		int[] ordered = new int[maxMoves];
+		SearchRoot[] newRoots = new SearchRoot[trees.length];
+		for (int i = 0; i < trees.length; i++) {
+			SearchTree tree = trees[i];
+			tree.clear();
+			int node = allocateNode(tree, rootBoard, rootMoveGenerator, prior, moves, keys, ordered);
+			newRoots[i] = new SearchRoot(tree, tree.share(node), rootBoard, new RootStats(stripeCount()));
+		}
+		roots = newRoots;
+	}
+
+	// allocates a node for a board with an edge for every move, or for every
+	// turn in a turn tree, ordered by a prior if there is one
+	private int allocateNode(SearchTree tree, Board board, MoveGenerator moveGenerator, Heuristic prior, IntList moves, long[] keys, int[] ordered) {
+		moves.clear();
+		moveGenerator.generateMoves(board, moves);
+		if (prior != null) {
+			orderMoves(board, moves, prior, keys, ordered);
+		}
+		if (!turnNodes) {
+			return tree.allocate(board.getColorToMove(), board.getHash(), moves);
+		}
+		// the arrows of each queen move are only counted for now, so there is
+		// room for its turns, they're filled in when they're first needed
+		int size = 0;
+		for (int i = 0; i < moves.size(); i++) {
+			size += board.countArrowMoves(moves.get(i));
+		}
+		int node = tree.allocate(board.getColorToMove(), board.getHash(), size);
+		if (node != SearchTree.NONE) {
+			int edge = tree.edgeStart(node);
+			for (int i = 0; i < moves.size(); i++) {
+				int queenMove = moves.get(i);
+				int pending = Move.encodeTurn(queenMove, 0, board.dimensions.positionBits) | PENDING_TURN;
+				int arrows = board.countArrowMoves(queenMove);
+				tree.setMove(edge, pending | FIRST_PENDING_TURN);
+				for (int j = 1; j < arrows; j++) {
+					tree.setMove(edge + j, pending);
+				}
+				edge += arrows;
+			}
+		}
+		return node;
+	}
+
+	// sorts moves best first for the color to move, by a prior evaluation of
+	// the position each move leads to, ties stay in generation order
+	private static void orderMoves(Board board, IntList moves, Heuristic prior, long[] keys, int[] ordered) {
+		int sign = board.getColorToMove() == Color.WHITE ? 1 : -1;
+		int size = moves.size();
+		for (int i = 0; i < size; i++) {
+			int mark = board.getUndoMark();
+			board.doMove(moves.get(i));
+			long score = sign * (long) prior.evaluate(board);
+			board.undoToMark(mark);
+			keys[i] = (-score << 32) | i;
+		}
+		Arrays.sort(keys, 0, size);
+		for (int i = 0; i < size; i++) {
+			ordered[i] = moves.get((int) keys[i]);
+		}
+		for (int i = 0; i < size; i++) {
+			moves.set(i, ordered[i]);
+		}
+	}
+
+	// rebasing allows the search trees to reuse what they have already
+	// learned, but only if every tree has a node for the move
 	private boolean rebase(int move) {
-		int index = root.moves.search(move);
-		if (index == -1) {
-			return false;
-		}
-		Node child = root.children[index];
-		if (child == null) {
-			return false;
-		}
-		RootStats newStats = new RootStats();
-		newStats.maxDepth = rootStats.maxDepth - 1;
-		newStats.evaluations.set(root.childrenEvaluations.get(index));
-		int rewards;
-		if (root.color != child.color) {
-			rewards = root.childrenEvaluations.get(index) - root.childrenRewards.get(index);
+		SearchRoot[] oldRoots = roots;
+		SearchRoot[] newRoots = new SearchRoot[oldRoots.length];
+		Board rootBoard = board.clone();
+		boolean compact = false;
+		for (int i = 0; i < oldRoots.length; i++) {
+			SearchRoot oldRoot = oldRoots[i];
+			SearchTree tree = oldRoot.tree;
+			int edge = tree.findEdge(oldRoot.node, move);
+			if (edge == SearchTree.NONE) {
+				return false;
+			}
+			int child = tree.child(edge);
+			if (child < 0) {
+				return false;
+			}
+			RootStats newStats = new RootStats(stripeCount());
+			newStats.setBase(RootStats.MAX_DEPTH, oldRoot.stats.max(RootStats.MAX_DEPTH) - 1);
+			long edgeStats = tree.stats(edge);
+			int evaluations = SearchTree.evaluations(edgeStats);
+			newStats.setBase(RootStats.EVALUATIONS, evaluations);
+			int rewards;
+			if (tree.color(oldRoot.node) != tree.color(child)) {
+				rewards = evaluations - SearchTree.rewards(edgeStats);
+			} else {
+				rewards = SearchTree.rewards(edgeStats);
+			}
+			newStats.setBase(RootStats.REWARDS, rewards);
+			newRoots[i] = new SearchRoot(tree, child, rootBoard, newStats);
+			compact |= tree.usage() > COMPACTION_USAGE;
+		}
+		// the rest of the old trees are garbage, so reclaim it before it runs
+		// out, this has to wait for the workers to finish what they're doing
+		if (compact) {
+			stopWorkers();
+			for (int i = 0; i < newRoots.length; i++) {
+				SearchRoot newRoot = newRoots[i];
+				if (newRoot.tree.usage() > COMPACTION_USAGE) {
+					newRoots[i] = new SearchRoot(newRoot.tree, newRoot.tree.compact(newRoot.node), rootBoard, newRoot.stats);
+				}
+			}
+			roots = newRoots;
+			startWorkers();
 		} else {
-			rewards = root.childrenRewards.get(index);
+			roots = newRoots;
 		}
-		newStats.rewards.set(rewards);
-		rootStats = newStats;
-		root = child;
 		return true;
 	}
 
-	// pick nodes with the highest reward ratio for both teams
+	// whether the outcome at the root has been proven by any of the trees
+	private static boolean isSolved(SearchRoot[] roots) {
+		for (SearchRoot root : roots) {
+			if (root.tree.proof(root.node) != SearchTree.UNKNOWN) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// the stats of the moves at the roots, added up across the trees, which
+	// can order their moves differently, so they're merged by move rather
+	// than by edge, in the order of the first tree
+	private static List<MoveStats> mergeRootMoves(SearchRoot[] roots) {
+		LinkedHashMap<Integer, MoveStats> merged = new LinkedHashMap<>();
+		for (SearchRoot root : roots) {
+			int start = root.tree.edgeStart(root.node);
+			int end = start + root.tree.edgeCount(root.node);
+			for (int edge = start; edge < end; edge++) {
+				// in a turn tree, the turns of a queen move that haven't been
+				// filled in yet all look alike, and have no stats yet
+				int move = root.tree.move(edge) & ~FIRST_PENDING_TURN;
+				byte proof = root.tree.edgeProof(edge);
+				long edgeStats = root.tree.stats(edge);
+				MoveStats stats = new MoveStats(
+					move,
+					SearchTree.evaluations(edgeStats),
+					SearchTree.rewards(edgeStats),
+					proof == SearchTree.WIN,
+					proof == SearchTree.LOSS
+				);
+				merged.merge(move, stats, MoveStats::add);
+			}
+		}
+		return new ArrayList<>(merged.values());
+	}
+
+	// pick nodes with the highest reward ratio for both teams, or proven wins
 	@Override
 	public void suggestAndDoMoves(int maxMoves, IntList output) {
-		try {
-			Thread.sleep(thinkingMillis);
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-		}
+		think();
 		// TODO: find a better way to handle these stats instead of caching here
-		Stats stats = new Stats(rootStats);
-		Node node = root;
+		Stats stats = new Stats(roots);
+		int bits = board.dimensions.positionBits;
+		ArrayList<MoveStats> candidates = new ArrayList<>();
 		while (maxMoves-- > 0) {
-			double maxReward = 0.0;
-			int maxIndex = -1;
-			for (int i = 0; node != null && i < node.size(); i++) {
-				double reward = (double) node.childrenRewards.get(i) / node.childrenEvaluations.get(i);
-				if (reward >= maxReward) {
-					maxReward = reward;
-					maxIndex = i;
+			// the roots move down the trees with every move that is done,
+			// except in a turn tree, where they wait for the end of the turn
+			boolean arrowOfTurn = turnNodes && board.getNextMoveType() == MoveType.ARROW;
+			candidates.clear();
+			for (MoveStats moveStats : mergeRootMoves(roots)) {
+				if (arrowOfTurn) {
+					int turn = moveStats.move;
+					if ((turn & PENDING_TURN) != 0 || Move.decodeTurnQueenMove(turn, bits) != turnQueenMove) {
+						continue;
+					}
 				}
+				candidates.add(moveStats);
 			}
-			if (maxIndex == -1) {
+			MoveStats best = MoveStats.best(candidates);
+			if (best == null) {
 				break;
 			}
-			int move = node.moves.get(maxIndex);
+			int move = best.move;
+			if (arrowOfTurn) {
+				move = Move.decodeTurnArrowMove(move, bits);
+			} else if (turnNodes) {
+				move = Move.decodeTurnQueenMove(move, bits);
+			}
 			doMove(move);
 			output.push(move);
-			node = node.children[maxIndex];
 		}
 		publicStats = stats;
 	}
 
+	/**
+	 * Lets the workers search for the thinking time, or until the outcome is
+	 * proven, without doing a move.
+	 */
+	public void think() {
+		// stop thinking as soon as the outcome is proven
+		long deadline = System.currentTimeMillis() + thinkingMillis;
+		try {
+			long remaining = thinkingMillis;
+			while (remaining > 0 && !isSolved(roots)) {
+				Thread.sleep(Math.min(remaining, SOLVED_POLL_MILLIS));
+				remaining = deadline - System.currentTimeMillis();
+			}
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Gets the statistics of every move at the root, added up across the
+	 * trees, in the order the moves were generated. Only works for trees
+	 * with an edge per move, not turn trees.
+	 */
+	public List<MoveStats> getRootMoveStats() {
+		if (turnNodes) {
+			throw new IllegalStateException("a turn tree only has stats for whole turns");
+		}
+		return mergeRootMoves(roots);
+	}
+
 	/** Get some stats that are useful to humans. */
 	public Stats getStats() {
 		return publicStats;
@@ -171,143 +450,625 @@ public class MonteCarloPlayer extends Player implements AutoCloseable {
 		this.thinkingMillis = thinkingMillis;
 	}
 
-	// each thread is a worker
-	private class Worker implements Runnable {
+	/**
+	 * Sets the virtual loss, the number of losses a worker temporarily adds
+	 * to every edge it passes through until its evaluation is finished. This
+	 * spreads concurrent workers over the tree instead of having them all
+	 * follow the same path. Zero turns it off.
+	 */
+	public void setVirtualLoss(int virtualLoss) {
+		if (virtualLoss < 0) {
+			throw new IllegalArgumentException("virtual loss can't be negative");
+		}
+		this.virtualLoss = virtualLoss;
+	}
+
+	/**
+	 * Sets the number of bytes reserved for the search tree. The tree is
+	 * reserved up front, so this has to be set before using a board.
+	 */
+	public void setTreeMemory(long bytes) {
+		if (trees != null) {
+			throw new IllegalStateException("tree memory must be set before using a board");
+		}
+		this.treeMemory = bytes;
+	}
+
+	/**
+	 * Sets whether positions reached by different move orders share a node,
+	 * so their statistics and subtrees are shared too. This turns the tree
+	 * into a graph, which needs a transposition table, so it has to be set
+	 * before using a board.
+	 */
+	public void setTranspositions(boolean transpositions) {
+		if (trees != null) {
+			throw new IllegalStateException("transpositions must be set before using a board");
+		}
+		this.transpositions = transpositions;
+	}
+
+	/**
+	 * Sets the number of times a leaf is evaluated before it is expanded
+	 * into a node. Until then, evaluations of the leaf just start from its
+	 * position, which saves generating moves and allocating nodes for leaves
+	 * that are never visited again. Zero expands every leaf straight away.
+	 */
+	public void setExpansionThreshold(int expansionThreshold) {
+		if (expansionThreshold < 0) {
+			throw new IllegalArgumentException("expansion threshold can't be negative");
+		}
+		this.expansionThreshold = expansionThreshold;
+	}
+
+	/**
+	 * Sets the number of evaluations done from each leaf a search reaches.
+	 * They're done back to back from the worker's copy of the board, and
+	 * recorded in the tree all at once, so the cost of descending the tree
+	 * and expanding the leaf is shared between them. One is the usual single
+	 * evaluation per search.
+	 */
+	public void setRolloutsPerLeaf(int rolloutsPerLeaf) {
+		if (rolloutsPerLeaf < 1) {
+			throw new IllegalArgumentException("there must be at least one rollout per leaf");
+		}
+		this.rolloutsPerLeaf = rolloutsPerLeaf;
+	}
+
+	/**
+	 * Turns on the evaluation pipeline. Workers queue the leaves they reach
+	 * instead of evaluating them, and carry on searching, while a number of
+	 * evaluators take queued leaves in batches and evaluate them with the
+	 * batch version of the heuristic. The virtual loss on the path to a
+	 * queued leaf stays until it is evaluated, so workers search other paths
+	 * meanwhile. Evaluators are run by the scheduler alongside the workers.
+	 * No evaluators turns it off. This has to be set before using a board.
+	 */
+	public void setEvaluationPipeline(int evaluatorCount, int batchSize) {
+		if (trees != null) {
+			throw new IllegalStateException("evaluation pipeline must be set before using a board");
+		}
+		if (evaluatorCount < 0 || batchSize < 1) {
+			throw new IllegalArgumentException("invalid evaluation pipeline parameters");
+		}
+		this.evaluatorCount = evaluatorCount;
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Turns on progressive widening. The moves of each node are ordered once
+	 * by a cheap prior heuristic when it is expanded, and only the best
+	 * ceil(width * (n + 1)^exponent) of them are searched once the node has
+	 * been evaluated n times, so early evaluations go to plausible moves. A
+	 * null prior turns it off. This has to be set before using a board.
+	 */
+	public void setProgressiveWidening(Supplier<Heuristic> priorSupplier, double width, double exponent) {
+		if (width <= 0.0 || exponent < 0.0) {
+			throw new IllegalArgumentException("invalid progressive widening parameters");
+		}
+		this.priorSupplier = priorSupplier;
+		this.wideningWidth = width;
+		this.wideningExponent = exponent;
+	}
+
+	/**
+	 * Sets whether edges of the tree are whole turns, packed into an int,
+	 * instead of single queen or arrow moves. This halves the depth of the
+	 * tree and the number of nodes, but every node has an edge for every
+	 * turn. Turns are only counted when a node is expanded, the arrows of a
+	 * queen move are filled in the first time one of its turns is needed.
+	 * Only works for boards up to around 30x30, and has to be set before
+	 * using a board.
+	 */
+	public void setTurnNodes(boolean turnNodes) {
+		if (trees != null) {
+			throw new IllegalStateException("tree shape must be set before using a board");
+		}
+		this.turnNodes = turnNodes;
+	}
+
+	/**
+	 * Sets the number of independent trees to search, root parallelism. The
+	 * workers are split between the trees, which are all grown from the same
+	 * position without sharing any memory, and the evaluations and rewards
+	 * of the moves at their roots are added up when picking a move. One tree
+	 * means every worker searches the same tree, which is the default. The
+	 * tree memory is split between the trees, so this has to be set before
+	 * using a board.
+	 */
+	public void setTreeCount(int treeCount) {
+		if (trees != null) {
+			throw new IllegalStateException("tree count must be set before using a board");
+		}
+		if (treeCount < 1 || treeCount > threadCount) {
+			throw new IllegalArgumentException("there must be between one tree and a tree per thread");
+		}
+		this.treeCount = treeCount;
+	}
+
+	/**
+	 * Sets the scheduler whose threads run the search, instead of the one
+	 * shared by the whole process. The player gets at most as many of its
+	 * threads as its thread count, and shares them with any other searches
+	 * on the same scheduler. This has to be set before using a board.
+	 */
+	public void setScheduler(SearchScheduler scheduler) {
+		if (trees != null) {
+			throw new IllegalStateException("scheduler must be set before using a board");
+		}
+		this.scheduler = scheduler;
+	}
+
+	private void startWorkers() {
+		ArrayList<SearchScheduler.Task> tasks = new ArrayList<>(threadCount + evaluatorCount);
+		for (int i = 0; i < threadCount; i++) {
+			tasks.add(new Worker(i));
+		}
+		if (evaluatorCount > 0) {
+			// enough leaves for the evaluators to fill a batch each while
+			// they evaluate another
+			int leafCount = 2 * evaluatorCount * batchSize;
+			pendingLeaves = new ArrayBlockingQueue<>(leafCount);
+			freeLeaves = new ArrayBlockingQueue<>(leafCount);
+			for (int i = 0; i < leafCount; i++) {
+				freeLeaves.add(new Leaf(board.dimensions.boardSize * MoveType.COUNT));
+			}
+			for (int i = 0; i < evaluatorCount; i++) {
+				tasks.add(new Evaluator(threadCount + i));
+			}
+		}
+		job = scheduler.start(tasks);
+	}
+
+	private void stopWorkers() {
+		if (job != null) {
+			job.stop();
+			job = null;
+		}
+		// leaves still in the pipeline belong to a tree that is about to
+		// change, so they are given up rather than evaluated
+		if (pendingLeaves != null) {
+			for (Leaf leaf = pendingLeaves.poll(); leaf != null; leaf = pendingLeaves.poll()) {
+				abandon(leaf);
+			}
+		}
+	}
+
+	// there is a stripe of root stats for each worker and evaluator
+	private int stripeCount() {
+		return threadCount + evaluatorCount;
+	}
+
+	// maps an evaluation from a heuristic to a winner, or null for a draw
+	private static Color winner(int evaluation) {
+		if (evaluation > 0) {
+			return Color.WHITE;
+		} else if (evaluation < 0) {
+			return Color.BLACK;
+		} else {
+			return null;
+		}
+	}
+
+	// backpropogation step of uct, every evaluation of a leaf is recorded in
+	// a single update per edge, and counted in a stripe of the root stats
+	private void backpropogate(Leaf leaf, int stripe) {
+		SearchTree tree = leaf.root.tree;
+		RootStats rootStats = leaf.root.stats;
+		rootStats.add(stripe, RootStats.EVALUATIONS, leaf.evaluations);
+		rootStats.add(stripe, RootStats.REWARDS, leaf.wins(leaf.root.board.getColorToMove()));
+		for (int i = 0; i < leaf.edges.size(); i++) {
+			int node = leaf.nodes.get(i);
+			int edge = leaf.edges.get(i);
+			tree.addEvaluations(edge, leaf.evaluations, leaf.wins(tree.color(node)), virtualLoss);
+		}
+	}
+
+	// takes back the virtual loss on the path to a leaf that won't be
+	// evaluated after all
+	private void abandon(Leaf leaf) {
+		for (int i = 0; i < leaf.edges.size(); i++) {
+			leaf.root.tree.addEvaluations(leaf.edges.get(i), 0, 0, virtualLoss);
+		}
+	}
+
+	// sets up the board of a leaf for an evaluator, by doing the moves on the
+	// path from the root, whose turns have all been filled in already
+	private void replay(Leaf leaf) {
+		if (leaf.boardRoot != leaf.root) {
+			leaf.board = leaf.root.board.clone();
+			leaf.boardRoot = leaf.root;
+			leaf.boardMark = leaf.board.getUndoMark();
+		} else {
+			leaf.board.undoToMark(leaf.boardMark);
+		}
+		int bits = leaf.board.dimensions.positionBits;
+		for (int i = 0; i < leaf.edges.size(); i++) {
+			int move = leaf.root.tree.move(leaf.edges.get(i));
+			if (turnNodes) {
+				leaf.board.doMove(Move.decodeTurnQueenMove(move, bits));
+				leaf.board.doMove(Move.decodeTurnArrowMove(move, bits));
+			} else {
+				leaf.board.doMove(move);
+			}
+		}
+	}
+
+	// a worker is run by one of the scheduler's threads at a time, a slice
+	// at a time
+	private class Worker implements SearchScheduler.Task {
+
+		// the stripe of the root stats this worker writes to
+		private int stripe;
+
+		// the tree this worker searches, and its index in trees and roots
+		private int group;
+		private SearchTree tree;
+
+		// the number of evaluations of the root, which is only added up from
+		// the stripes now and then, and counted locally in between
+		private double rootEvaluations;
+		private int searchesUntilRootRefresh;
 
 		// each worker gets its own heuristic and generators from suppliers
 		private Heuristic heuristic;
 		private MoveGenerator moveGenerator;
 
-		// a trace of the node indices explored in a search
-		private IntList indexTrace;
+		// orders moves for progressive widening, or null, with scratch space
+		private Heuristic prior;
+		private long[] priorKeys;
+		private int[] priorMoves;
+
+		// the leaf of the current search, with the path to it, which is
+		// swapped for a free one when it is handed to the evaluators
+		private Leaf leaf;
 
-		// a trace of all the nodes explored in a search
-		private ArrayList<Node> nodeTrace;
+		// moves of a node that is being expanded
+		private IntList expansionMoves;
 
-		public Worker() {
+		// an edge this worker has claimed but not expanded yet, so the claim
+		// can be given up if something goes wrong
+		private int claimedEdge;
+
+		// a private copy of the board that is unwound after every search
+		// it is only recopied when the root changes
+		private Board searchState;
+		private SearchRoot searchRoot;
+
+		public Worker(int stripe) {
+			this.stripe = stripe;
+			this.group = stripe % trees.length;
+			this.tree = trees[group];
+			this.searchesUntilRootRefresh = 0;
 			this.heuristic = heuristicSupplier.get();
 			this.moveGenerator = moveGenSupplier.get();
-			this.indexTrace = new IntList(board.dimensions.boardSize * MoveType.COUNT);
-			this.nodeTrace = new ArrayList<>(board.dimensions.boardSize * MoveType.COUNT);
+			this.leaf = new Leaf(board.dimensions.boardSize * MoveType.COUNT);
+			this.expansionMoves = new IntList(board.getMaxMovesAbsolute());
+			if (priorSupplier != null) {
+				this.prior = priorSupplier.get();
+			}
+			this.priorKeys = new long[board.getMaxMovesAbsolute()];
+			this.priorMoves = new int[board.getMaxMovesAbsolute()];
+			this.claimedEdge = SearchTree.NONE;
 		}
 
-		private void search(Board searchState) {
+		// returns false if the search was given up, because it needed turns
+		// that another worker is still filling in
+		private boolean search(SearchRoot searchRoot, Board searchState) {
 
-			// get a reference to the stats object now
-			// if we got it later, it might have changed
-			// and stats would be added to the wrong object!
-			RootStats cachedRootStats = rootStats;
+			// the root is read once, so the tree, board and stats that are
+			// used all belong together, even if the root changes meanwhile
+			RootStats cachedRootStats = searchRoot.stats;
 
 			// selection
-			nodeTrace.clear();
-			indexTrace.clear();
-			double parentEvaluations = cachedRootStats.evaluations.doubleValue();
-			Node previousNode = null;
-			Node selectedNode = root;
-			int selectedChild = -1;
-			do {
-				// this if boardment is needed to prevent inconsistent views when multithreading
-				if (selectedNode.moveCount != searchState.getMoveCount()) {
-					// System.out.println("MISMATCH PREVENTED");
-					return;
+			leaf.reset(searchRoot);
+			if (searchesUntilRootRefresh-- == 0) {
+				rootEvaluations = countRootEvaluations(searchRoot);
+				searchesUntilRootRefresh = ROOT_REFRESH_INTERVAL;
+			}
+			double parentEvaluations = rootEvaluations++;
+			int selectedNode = searchRoot.node;
+			int leafEdge = SearchTree.NONE;
+			// proven nodes are never searched below, their outcome is known
+			while (tree.proof(selectedNode) == SearchTree.UNKNOWN) {
+				int selectedEdge = select(parentEvaluations, selectedNode);
+				if (selectedEdge == SearchTree.NONE) {
+					// select gives up on scores it can't compare too, so only
+					// a node with no moves left but proven losses is lost
+					selectedEdge = leastVisited(selectedNode);
+					if (selectedEdge == SearchTree.NONE) {
+						// terminal state, or every move is a proven loss
+						tree.setProof(selectedNode, SearchTree.LOSS);
+						break;
+					}
+				}
+				leaf.edges.push(selectedEdge);
+				leaf.nodes.push(selectedNode);
+				if (virtualLoss != 0) {
+					tree.addVirtualLoss(selectedEdge, virtualLoss);
+				}
+				if (!doEdge(selectedEdge, searchState)) {
+					abandon(leaf);
+					leaf.reset(searchRoot);
+					return false;
 				}
-				selectedChild = select(parentEvaluations, selectedNode);
-				if (selectedChild == -1) {
+				parentEvaluations = SearchTree.evaluations(tree.stats(selectedEdge));
+				int child = tree.child(selectedEdge);
+				if (child < 0) {
+					leafEdge = selectedEdge;
 					break;
 				}
-				indexTrace.push(selectedChild);
-				nodeTrace.add(selectedNode);
-				searchState.doMove(selectedNode.moves.get(selectedChild));
-				parentEvaluations = selectedNode.childrenEvaluations.get(selectedChild);
-				previousNode = selectedNode;
-				selectedNode = selectedNode.children[selectedChild];
-			} while (selectedNode != null);
-
-			int depth = indexTrace.size();
-			if (depth > cachedRootStats.maxDepth) {
-				cachedRootStats.maxDepth = depth;
+				selectedNode = child;
 			}
 
-			Color winner;
-			if (selectedChild == -1) {
+			int depth = leaf.edges.size();
+			if (depth > cachedRootStats.get(stripe, RootStats.MAX_DEPTH)) {
+				cachedRootStats.set(stripe, RootStats.MAX_DEPTH, depth);
+			}
 
-				// terminal state
-				winner = searchState.getColorToMove().opposite();
+			if (leafEdge == SearchTree.NONE) {
 
-				// DEBUG ASSERTION
-				// check for bad terminal boards
-				// IntList moves = new IntList(searchState.getMaxMovesAbsolute());
-				// searchState.generateMoves(moves);
-				// if (moves.size() != 0) {
-				// 	System.out.println("FALSE TERMINAL STATE");
-				// 	System.out.println(searchState);
-				// }
+				// proven state, which only counts once however many rollouts
+				if (tree.proof(selectedNode) == SearchTree.WIN) {
+					leaf.countEvaluation(tree.color(selectedNode));
+				} else {
+					leaf.countEvaluation(tree.color(selectedNode).opposite());
+				}
 
 			} else {
 
-				// expansion
-				Node expandedNode = new Node(searchState, moveGenerator);
-				// simulation
-				winner = evaluate(searchState);
-				// attach expanded node
-				previousNode.children[selectedChild] = expandedNode;
+				// expansion, only once the edge has been evaluated enough
+				// virtual loss from this search doesn't count as an evaluation
+				int leafEvaluations = SearchTree.evaluations(tree.stats(leafEdge)) - virtualLoss;
+				if (leafEvaluations >= expansionThreshold) {
+					expand(leafEdge, searchState, cachedRootStats);
+				}
+				// in a pipeline, the evaluators take it from here
+				if (pendingLeaves != null && handOff()) {
+					return true;
+				}
+				// simulation, every rollout starts from the leaf
+				int mark = searchState.getUndoMark();
+				for (int i = 0; i < rolloutsPerLeaf; i++) {
+					if (i > 0) {
+						searchState.undoToMark(mark);
+					}
+					leaf.countEvaluation(winner(heuristic.evaluate(searchState)));
+				}
+
+			}
+
+			backpropogate(leaf, stripe);
+			// one was already counted when the search started
+			rootEvaluations += leaf.evaluations - 1;
+			propagateProofs();
+			// the virtual loss on the path has been taken back, so there is
+			// nothing left to abandon if the next search fails
+			leaf.reset(searchRoot);
+			return true;
+
+		}
+
+		// the evaluations of the root, from the striped sum or the edges of
+		// the root, whichever is ahead, the edges include the virtual loss of
+		// searches still in flight, which the sum misses on a fresh root
+		private double countRootEvaluations(SearchRoot searchRoot) {
+			long edgeEvaluations = 0;
+			int start = tree.edgeStart(searchRoot.node);
+			int end = start + tree.edgeCount(searchRoot.node);
+			for (int edge = start; edge < end; edge++) {
+				edgeEvaluations += SearchTree.evaluations(tree.stats(edge));
+			}
+			long sum = searchRoot.stats.sum(RootStats.EVALUATIONS);
+			return Math.max(1, Math.max(sum, edgeEvaluations));
+		}
 
+		// expands a leaf edge into a node, only by the worker that claims the
+		// edge, the others that got here at the same time just evaluate it
+		private void expand(int leafEdge, Board searchState, RootStats cachedRootStats) {
+			if (!tree.claimChild(leafEdge)) {
+				cachedRootStats.increment(stripe, RootStats.EXPANSION_COLLISIONS);
+				return;
 			}
+			claimedEdge = leafEdge;
+			long hash = searchState.getHash();
+			int expandedNode = tree.findTransposition(hash);
+			if (expandedNode == SearchTree.NONE) {
+				expandedNode = allocateNode(tree, searchState, moveGenerator, prior, expansionMoves, priorKeys, priorMoves);
+				if (expandedNode != SearchTree.NONE) {
+					int sharedNode = tree.share(expandedNode);
+					if (sharedNode != expandedNode) {
+						// another worker got to the same position first
+						cachedRootStats.increment(stripe, RootStats.TRANSPOSITIONS);
+						expandedNode = sharedNode;
+					}
+				}
+			} else {
+				cachedRootStats.increment(stripe, RootStats.TRANSPOSITIONS);
+			}
+			// attach expanded node, unless the tree is full
+			tree.setChild(leafEdge, expandedNode);
+			claimedEdge = SearchTree.NONE;
+		}
 
-			backpropogate(cachedRootStats, winner);
+		// does the move of an edge, or both moves in a turn tree, unless it is
+		// a turn another worker is still filling in
+		private boolean doEdge(int edge, Board searchState) {
+			if (!turnNodes) {
+				searchState.doMove(tree.move(edge));
+				return true;
+			}
+			int turn = claimTurn(edge, searchState);
+			if ((turn & PENDING_TURN) != 0) {
+				return false;
+			}
+			int bits = searchState.dimensions.positionBits;
+			searchState.doMove(Move.decodeTurnQueenMove(turn, bits));
+			searchState.doMove(Move.decodeTurnArrowMove(turn, bits));
+			return true;
+		}
+
+		// gets the turn of an edge in a turn tree, filling in the turns of its
+		// queen move if they're pending and no other worker has claimed them,
+		// the turn is still pending if another worker has
+		private int claimTurn(int edge, Board searchState) {
+			int turn = tree.move(edge);
+			if ((turn & PENDING_TURN) == 0) {
+				return turn;
+			}
+			if ((turn & FIRST_PENDING_TURN) != 0 && tree.claimMove(edge, turn, turn & ~FIRST_PENDING_TURN)) {
+				try {
+					fillTurns(edge, turn, searchState);
+				} catch (RuntimeException e) {
+					// hand the turns back, so the next worker fills them in
+					// instead of everyone waiting on them forever
+					tree.setMove(edge, turn);
+					throw e;
+				}
+			}
+			return tree.move(edge);
+		}
 
+		// fills in the turns of a queen move, starting at its first edge
+		private void fillTurns(int firstEdge, int pending, Board searchState) {
+			int bits = searchState.dimensions.positionBits;
+			int queenMove = Move.decodeTurnQueenMove(pending, bits);
+			int mark = searchState.getUndoMark();
+			searchState.doMove(queenMove);
+			expansionMoves.clear();
+			searchState.generateMoves(expansionMoves);
+			searchState.undoToMark(mark);
+			for (int i = 0; i < expansionMoves.size(); i++) {
+				tree.setMove(firstEdge + i, Move.encodeTurn(queenMove, expansionMoves.get(i), bits));
+			}
 		}
 
 		// performs a single iteration of uct selection
-		private int select(double parentEvaluations, Node node) {
-			if (node.needsExpansion()) {
-				return node.nextToExpand++;
+		private int select(double parentEvaluations, int node) {
+			int start = tree.edgeStart(node);
+			int count = tree.edgeCount(node);
+			// with progressive widening only the best few moves are
+			// considered, more as the node is evaluated more
+			int width = count;
+			if (prior != null) {
+				width = (int) Math.min(count, Math.ceil(wideningWidth * Math.pow(parentEvaluations + 1.0, wideningExponent)));
 			}
-			double logParentEvaluations = Math.log(parentEvaluations);
+			// unexpanded edges are handed out in order, each to one worker
+			for (int next = tree.nextToExpand(node); next < width; next = tree.nextToExpand(node)) {
+				if (tree.claimNextToExpand(node, next)) {
+					return start + next;
+				}
+			}
+			// a shared node is visited through all of its parents, not just
+			// the one the search came from
+			if (tree.hasTranspositions()) {
+				parentEvaluations = 0.0;
+				for (int edge = start; edge < start + count; edge++) {
+					parentEvaluations += SearchTree.evaluations(tree.stats(edge));
+				}
+			}
+			// the parent count can lag behind evaluations still in flight, at
+			// a fresh root it can even be zero, which would make every score
+			// NaN and leave nothing to select
+			double logParentEvaluations = Math.log(Math.max(1.0, parentEvaluations));
 			double maxScore = 0.0;
-			int maxScoreIndex = -1;
-			for (int i = 0; i < node.size(); i++) {
-				if (node.children[i] == null) {
-					return i;
+			int maxScoreEdge = SearchTree.NONE;
+			int end = start + width;
+			for (int edge = start; edge < end; edge++) {
+				byte proof = tree.edgeProof(edge);
+				if (proof == SearchTree.WIN) {
+					return edge;
+				} else if (proof == SearchTree.LOSS) {
+					// proven losses don't take up any of the width
+					if (end < start + count) {
+						end++;
+					}
+					continue;
 				}
-				double score = ucb1(node.childrenRewards.getPlain(i), node.childrenEvaluations.getPlain(i), logParentEvaluations);
-				// TODO: fix this so it isn't needed
-				if (Double.isNaN(score)) {
-					return i;
+				// edges handed out for expansion may not have been evaluated
+				// yet, when there is no virtual loss to make up for it
+				long edgeStats = tree.stats(edge);
+				int evaluations = SearchTree.evaluations(edgeStats);
+				if (evaluations == 0) {
+					return edge;
 				}
+				double score = ucb1(SearchTree.rewards(edgeStats), evaluations, logParentEvaluations);
 				if (score >= maxScore) {
 					maxScore = score;
-					maxScoreIndex = i;
+					maxScoreEdge = edge;
 				}
 			}
-			return maxScoreIndex;
+			return maxScoreEdge;
 		}
 
-		// evaluates a state with heuristic and returns a winner.
-		private Color evaluate(Board board) {
-			int eval = heuristic.evaluate(board);
-			if (eval > 0) {
-				return Color.WHITE;
-			} else if (eval < 0) {
-				return Color.BLACK;
-			} else {
-				return null;
+		// queues the leaf for the evaluators and carries on with a free one,
+		// unless every leaf is already in the pipeline, then the worker
+		// evaluates its leaf itself
+		private boolean handOff() {
+			Leaf next = freeLeaves.poll();
+			if (next == null) {
+				return false;
 			}
+			propagateProofs();
+			next.reset(leaf.root);
+			pendingLeaves.add(leaf);
+			leaf = next;
+			return true;
 		}
 
-		// backpropogation step of uct
-		private void backpropogate(RootStats cachedRootStats, Color winner) {
-			cachedRootStats.evaluations.incrementAndGet();
-			if (board.getColorToMove() == winner) {
-				cachedRootStats.rewards.incrementAndGet();
+		// the edge with the fewest evaluations that isn't a proven loss, or
+		// none if there isn't one
+		private int leastVisited(int node) {
+			int start = tree.edgeStart(node);
+			int end = start + tree.edgeCount(node);
+			int minEvaluations = Integer.MAX_VALUE;
+			int minEvaluationsEdge = SearchTree.NONE;
+			for (int edge = start; edge < end; edge++) {
+				if (tree.edgeProof(edge) == SearchTree.LOSS) {
+					continue;
+				}
+				int evaluations = SearchTree.evaluations(tree.stats(edge));
+				if (evaluations < minEvaluations) {
+					minEvaluations = evaluations;
+					minEvaluationsEdge = edge;
+				}
 			}
-			for (int i = 0; i < indexTrace.size(); i++) {
-				Node node = nodeTrace.get(i);
-				int selectedChild = indexTrace.get(i);
-				node.childrenEvaluations.getAndIncrement(selectedChild);
-				if (node.color == winner) {
-					node.childrenRewards.getAndIncrement(selectedChild);
+			return minEvaluationsEdge;
+		}
+
+		// mcts-solver, proofs are passed up the path the search took, as far
+		// as they go, a node is won if any edge wins and lost if every edge
+		// loses, this works the same for queen and arrow nodes
+		private void propagateProofs() {
+			for (int i = leaf.edges.size() - 1; i >= 0; i--) {
+				int node = leaf.nodes.get(i);
+				int edge = leaf.edges.get(i);
+				int child = tree.child(edge);
+				if (child < 0) {
+					return;
+				}
+				byte childProof = tree.proof(child);
+				if (childProof == SearchTree.UNKNOWN) {
+					return;
+				}
+				// proofs are for the color to move, which is the same at both
+				// ends of a queen move, and flips at the end of an arrow move
+				byte proof = childProof;
+				if (tree.color(child) != tree.color(node)) {
+					proof = childProof == SearchTree.WIN ? SearchTree.LOSS : SearchTree.WIN;
+				}
+				tree.setEdgeProof(edge, proof);
+				if (proof == SearchTree.WIN) {
+					tree.setProof(node, SearchTree.WIN);
+					continue;
+				}
+				int start = tree.edgeStart(node);
+				int end = start + tree.edgeCount(node);
+				for (int other = start; other < end; other++) {
+					if (tree.edgeProof(other) != SearchTree.LOSS) {
+						return;
+					}
 				}
+				tree.setProof(node, SearchTree.LOSS);
 			}
 		}
 
@@ -318,72 +1079,268 @@ public class MonteCarloPlayer extends Player implements AutoCloseable {
 			return exploitation + explorationFactor * exploration;
 		}
 
-		// the worker loop
+		// the worker loop, for a slice
 		@Override
-		public void run() {
-			while (running) {
-				if (root != null) {
-					// this try loop will catch any weird errors from threading
-					// anomalies, just log them, there are few, but they are
-					// mostly harmless in the grand scheme.
-					try {
-						search(board.clone());
-					} catch (Exception e) {
-						e.printStackTrace();
+		public void run(SearchScheduler.Job job, long deadline) {
+			while (!job.isStopping() && System.nanoTime() < deadline) {
+				SearchRoot currentRoot = roots[group];
+				if (tree.proof(currentRoot.node) != SearchTree.UNKNOWN) {
+					// nothing left to learn until the root changes, so let
+					// other searches have the thread
+					LockSupport.parkNanos(SOLVED_WAIT_NANOS);
+					return;
+				}
+				// this try loop will catch any weird errors from threading
+				// anomalies, just log them, there are few, but they are
+				// mostly harmless in the grand scheme.
+				try {
+					if (searchRoot != currentRoot) {
+						searchState = currentRoot.board.clone();
+						searchRoot = currentRoot;
+						searchesUntilRootRefresh = 0;
+					}
+					int mark = searchState.getUndoMark();
+					boolean searched = search(currentRoot, searchState);
+					searchState.undoToMark(mark);
+					if (!searched) {
+						// rather than wait on the worker filling in the turns
+						// this search needed, let it have the thread
+						return;
+					}
+				} catch (Exception e) {
+					// the path the search got down still has its virtual loss
+					abandon(leaf);
+					leaf.reset(currentRoot);
+					// the private board may be half way through a move
+					searchRoot = null;
+					currentRoot.stats.increment(stripe, RootStats.ABORTED_SEARCHES);
+					if (claimedEdge != SearchTree.NONE) {
+						tree.setChild(claimedEdge, SearchTree.NONE);
+						claimedEdge = SearchTree.NONE;
 					}
+					e.printStackTrace();
 				}
 			}
 		}
 		
 	}
 
-	// a mcts node
-	// stats are stored in arrays in the parent to improve cpu cache hit ratio
-	private class Node {
+	// an evaluator takes leaves from the pipeline a batch at a time
+	private class Evaluator implements SearchScheduler.Task {
+
+		// the stripe of the root stats this evaluator writes to
+		private int stripe;
+
+		private Heuristic heuristic;
+
+		// the batch being evaluated, with the boards and results
+		private Leaf[] batch;
+		private Board[] boards;
+		private int[] marks;
+		private int[] evaluations;
+
+		public Evaluator(int stripe) {
+			this.stripe = stripe;
+			this.heuristic = heuristicSupplier.get();
+			this.batch = new Leaf[batchSize];
+			this.boards = new Board[batchSize];
+			this.marks = new int[batchSize];
+			this.evaluations = new int[batchSize];
+		}
+
+		// the evaluator loop, for a slice
+		@Override
+		public void run(SearchScheduler.Job job, long deadline) {
+			while (!job.isStopping() && System.nanoTime() < deadline) {
+				int count = 0;
+				while (count < batchSize) {
+					Leaf leaf = pendingLeaves.poll();
+					if (leaf == null) {
+						break;
+					}
+					batch[count++] = leaf;
+				}
+				if (count == 0) {
+					// let the workers have the thread to find more leaves
+					LockSupport.parkNanos(EVALUATOR_WAIT_NANOS);
+					return;
+				}
+				try {
+					evaluate(count);
+				} catch (Exception e) {
+					for (int i = 0; i < count; i++) {
+						abandon(batch[i]);
+						batch[i].root.stats.increment(stripe, RootStats.ABORTED_SEARCHES);
+						// the board may be half way through a move
+						batch[i].boardRoot = null;
+					}
+					e.printStackTrace();
+				}
+				for (int i = 0; i < count; i++) {
+					freeLeaves.add(batch[i]);
+					batch[i] = null;
+				}
+			}
+		}
+
+		private void evaluate(int count) {
+			for (int i = 0; i < count; i++) {
+				replay(batch[i]);
+				boards[i] = batch[i].board;
+				marks[i] = boards[i].getUndoMark();
+			}
+			// every rollout starts from the leaf
+			for (int rollout = 0; rollout < rolloutsPerLeaf; rollout++) {
+				if (rollout > 0) {
+					for (int i = 0; i < count; i++) {
+						boards[i].undoToMark(marks[i]);
+					}
+				}
+				heuristic.evaluate(boards, count, evaluations);
+				for (int i = 0; i < count; i++) {
+					batch[i].countEvaluation(winner(evaluations[i]));
+				}
+			}
+			for (int i = 0; i < count; i++) {
+				backpropogate(batch[i], stripe);
+				boards[i] = null;
+			}
+		}
+
+	}
+
+	// a leaf a search has reached, with the path to it from the root, and the
+	// evaluations done from it, in a pipeline it is handed to an evaluator
+	private static class Leaf {
+
+		public SearchRoot root;
+		public final IntList edges;
+		public final IntList nodes;
+		public int evaluations;
+		public int whiteWins;
+		public int blackWins;
 
-		public int moveCount;
-		public Color color;
-		public IntList moves;
-		public Node[] children;
-		public AtomicIntegerArray childrenEvaluations;
-		public AtomicIntegerArray childrenRewards;
-		public int nextToExpand;
+		// an evaluator's copy of the board, which is only recopied from the
+		// root when the root changes, and unwound to the mark in between
+		public Board board;
+		public SearchRoot boardRoot;
+		public int boardMark;
 
-		// move generator is passed here, because we need to use the worker's
-		// generator not the root one, to be safe.
-		public Node(Board board, MoveGenerator moveGenerator) {
-			this.moveCount = board.getMoveCount();
-			this.color = board.getColorToMove();
-			this.moves = new IntList(board.getMaxMoves());
-			moveGenerator.generateMoves(board, moves);
-			this.children = new Node[moves.size()];
-			this.childrenEvaluations = new AtomicIntegerArray(moves.size());
-			this.childrenRewards = new AtomicIntegerArray(moves.size());
-			this.nextToExpand = 0;
+		public Leaf(int maxDepth) {
+			this.edges = new IntList(maxDepth);
+			this.nodes = new IntList(maxDepth);
 		}
 
-		// whether the node needs expansion
-		public boolean needsExpansion() {
-			return nextToExpand < children.length && children[nextToExpand] == null;
+		public void reset(SearchRoot root) {
+			this.root = root;
+			edges.clear();
+			nodes.clear();
+			evaluations = 0;
+			whiteWins = 0;
+			blackWins = 0;
+		}
+
+		// the winner is null for a draw
+		public void countEvaluation(Color winner) {
+			evaluations++;
+			if (winner == Color.WHITE) {
+				whiteWins++;
+			} else if (winner == Color.BLACK) {
+				blackWins++;
+			}
 		}
 
-		// this could be returned from a multitude of the arrays in the node
-		public int size() {
-			return children.length;
+		public int wins(Color color) {
+			return color == Color.WHITE ? whiteWins : blackWins;
 		}
 
 	}
 
-	// root stats from internal use
-	private class RootStats {
+	// the root node of a search tree, with a private copy of the board at the
+	// root for workers to copy, since the main board changes under them
+	private static class SearchRoot {
 
-		public AtomicInteger rewards;
-		public AtomicInteger evaluations;
-		public int maxDepth;
+		public final SearchTree tree;
+		public final int node;
+		public final Board board;
+		public final RootStats stats;
 
-		public RootStats() {
-			rewards = new AtomicInteger();
-			evaluations = new AtomicInteger();
+		public SearchRoot(SearchTree tree, int node, Board board, RootStats stats) {
+			this.tree = tree;
+			this.node = node;
+			this.board = board;
+			this.stats = stats;
+		}
+
+	}
+
+	// because stats are stored in the edges from the parent
+	// root stats need to stored separately
+	// every worker counts in its own stripe, padded onto its own cache lines,
+	// so the counters aren't bounced between cores, and the stripes are only
+	// added up when they are read
+	private static class RootStats {
+
+		public static final int EVALUATIONS = 0;
+		public static final int REWARDS = 1;
+		public static final int MAX_DEPTH = 2;
+		public static final int EXPANSION_COLLISIONS = 3;
+		public static final int ABORTED_SEARCHES = 4;
+		public static final int TRANSPOSITIONS = 5;
+
+		// 128 bytes, since some cpus fetch cache lines in pairs
+		private static final int STRIPE_LONGS = 16;
+
+		private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+
+		// a padding stripe, a stripe per worker, and a base stripe with
+		// stats carried over from an old root
+		private final long[] stripes;
+		private final int base;
+
+		public RootStats(int workerCount) {
+			this.stripes = new long[(workerCount + 2) * STRIPE_LONGS];
+			this.base = workerCount;
+		}
+
+		// only called by the worker that owns the stripe
+		public long get(int stripe, int field) {
+			return stripes[(stripe + 1)*STRIPE_LONGS + field];
+		}
+
+		// only called by the worker that owns the stripe, but the write is
+		// opaque so readers never see half of it
+		public void set(int stripe, int field, long value) {
+			LONGS.setOpaque(stripes, (stripe + 1)*STRIPE_LONGS + field, value);
+		}
+
+		public void add(int stripe, int field, long value) {
+			set(stripe, field, get(stripe, field) + value);
+		}
+
+		public void increment(int stripe, int field) {
+			add(stripe, field, 1);
+		}
+
+		// only called before the stats are shared with workers
+		public void setBase(int field, long value) {
+			set(base, field, value);
+		}
+
+		public long sum(int field) {
+			long sum = 0;
+			for (int stripe = 0; stripe <= base; stripe++) {
+				sum += (long) LONGS.getOpaque(stripes, (stripe + 1)*STRIPE_LONGS + field);
+			}
+			return sum;
+		}
+
+		public long max(int field) {
+			long max = 0;
+			for (int stripe = 0; stripe <= base; stripe++) {
+				max = Math.max(max, (long) LONGS.getOpaque(stripes, (stripe + 1)*STRIPE_LONGS + field));
+			}
+			return max;
 		}
 
 	}
@@ -392,30 +1349,71 @@ public class MonteCarloPlayer extends Player implements AutoCloseable {
 	public class Stats {
 
 		public final double whiteWinRatio;
-		public final int evaluations;
+		public final long evaluations;
 		public final int maxDepth;
+		/** The number of nodes in the search trees. */
+		public final int treeNodes;
+		/** The number of bytes used by the search trees. */
+		public final long treeBytes;
+		/** The number of bytes reserved for the search trees. */
+		public final long treeCapacityBytes;
+		/** The average number of bytes per node, including its edges. */
+		public final double bytesPerNode;
+		/** The number of times a worker found a leaf another was already expanding. */
+		public final long expansionCollisions;
+		/** The number of searches given up because of an error. */
+		public final long abortedSearches;
+		/** The number of expansions that reused the node of a transposition. */
+		public final long transpositions;
+		/** Whether the outcome of the position has been proven. */
+		public final boolean solved;
 
-		public Stats(RootStats stats) {
-			this.evaluations = stats.evaluations.intValue();
-			this.maxDepth = stats.maxDepth;
-			double rewardRatio = stats.rewards.doubleValue() / stats.evaluations.doubleValue();
+		public Stats(SearchRoot[] roots) {
+			long evaluations = 0;
+			long rewards = 0;
+			int maxDepth = 0;
+			int treeNodes = 0;
+			long treeBytes = 0;
+			long treeCapacityBytes = 0;
+			long expansionCollisions = 0;
+			long abortedSearches = 0;
+			long transpositions = 0;
+			for (SearchRoot root : roots) {
+				RootStats stats = root.stats;
+				evaluations += stats.sum(RootStats.EVALUATIONS);
+				rewards += stats.sum(RootStats.REWARDS);
+				maxDepth = Math.max(maxDepth, (int) stats.max(RootStats.MAX_DEPTH));
+				treeNodes += root.tree.nodeCount();
+				treeBytes += root.tree.usedBytes();
+				treeCapacityBytes += root.tree.capacityBytes();
+				expansionCollisions += stats.sum(RootStats.EXPANSION_COLLISIONS);
+				abortedSearches += stats.sum(RootStats.ABORTED_SEARCHES);
+				transpositions += stats.sum(RootStats.TRANSPOSITIONS);
+			}
+			this.evaluations = evaluations;
+			this.maxDepth = maxDepth;
+			double rewardRatio = (double) rewards / evaluations;
 			rewardRatio = Math.max(0.0, Math.min(rewardRatio, 1.0));
 			if (board.getColorToMove() == Color.WHITE) {
 				this.whiteWinRatio = rewardRatio;
 			} else {
 				this.whiteWinRatio = 1.0 - rewardRatio;
 			}
+			this.treeNodes = treeNodes;
+			this.treeBytes = treeBytes;
+			this.treeCapacityBytes = treeCapacityBytes;
+			this.bytesPerNode = treeNodes == 0 ? 0.0 : (double) treeBytes / treeNodes;
+			this.expansionCollisions = expansionCollisions;
+			this.abortedSearches = abortedSearches;
+			this.transpositions = transpositions;
+			this.solved = isSolved(roots);
 		}
 
 	}
 
 	@Override
-	public void close() throws Exception {
-		running = false;
-		for (Thread thread : workerThreads) {
-			thread.join();
-		}
-		workerThreads.clear();
+	public void close() {
+		stopWorkers();
 	}
 	
 }
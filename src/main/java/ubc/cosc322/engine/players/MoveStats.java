@@ -0,0 +1,70 @@
+package ubc.cosc322.engine.players;
+
+import java.util.List;
+
+/** The statistics of a move at the root of a search, for the color to move there. */
+public class MoveStats {
+
+	/** The move. */
+	public final int move;
+	/** The number of evaluations through the move. */
+	public final long evaluations;
+	/** The number of those evaluations won by the color to move. */
+	public final long rewards;
+	/** Whether the move is proven to win. */
+	public final boolean provenWin;
+	/** Whether the move is proven to lose. */
+	public final boolean provenLoss;
+
+	public MoveStats(int move, long evaluations, long rewards, boolean provenWin, boolean provenLoss) {
+		this.move = move;
+		this.evaluations = evaluations;
+		this.rewards = rewards;
+		this.provenWin = provenWin;
+		this.provenLoss = provenLoss;
+	}
+
+	/**
+	 * Adds up the stats of the same move from two searches. Throws if one
+	 * proved the move wins and the other that it loses.
+	 */
+	public MoveStats add(MoveStats other) {
+		if ((provenWin && other.provenLoss) || (provenLoss && other.provenWin)) {
+			throw new IllegalStateException("searches disagree on whether move " + move + " wins or loses");
+		}
+		return new MoveStats(
+			move,
+			evaluations + other.evaluations,
+			rewards + other.rewards,
+			provenWin || other.provenWin,
+			provenLoss || other.provenLoss
+		);
+	}
+
+	/** The fraction of evaluations that were won, NaN if there are none. */
+	public double rewardRatio() {
+		return (double) rewards / evaluations;
+	}
+
+	/**
+	 * Picks the move to play, a proven win if there is one, otherwise the
+	 * move with the highest reward ratio. Proven losses are only picked when
+	 * every move loses. Returns null if no move has been evaluated.
+	 */
+	public static MoveStats best(List<MoveStats> moves) {
+		double maxReward = -1.0;
+		MoveStats best = null;
+		for (MoveStats stats : moves) {
+			if (stats.provenWin) {
+				return stats;
+			}
+			double reward = stats.provenLoss ? -0.5 : stats.rewardRatio();
+			if (reward >= maxReward) {
+				maxReward = reward;
+				best = stats;
+			}
+		}
+		return best;
+	}
+
+}
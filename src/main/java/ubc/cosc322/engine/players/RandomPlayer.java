@@ -4,6 +4,7 @@ import java.util.Random;
 
 import ubc.cosc322.engine.core.Board;
 import ubc.cosc322.engine.generators.MoveGenerator;
+import ubc.cosc322.engine.generators.MoveSampler;
 import ubc.cosc322.engine.util.IntList;
 
 /** A player that uses random generator to pick randomly between moves. */
@@ -13,9 +14,15 @@ public class RandomPlayer extends Player {
 	private Random randomGenerator;
 	private IntList moveBuffer;
 
+	// when the generator can sample moves directly, no buffer is needed
+	private MoveSampler moveSampler;
+
 	public RandomPlayer(MoveGenerator moveGenerator) {
 		this.moveGenerator = moveGenerator;
 		this.randomGenerator = new Random();
+		if (moveGenerator instanceof MoveSampler) {
+			this.moveSampler = (MoveSampler) moveGenerator;
+		}
 	}
 
 	@Override
@@ -28,6 +35,17 @@ public class RandomPlayer extends Player {
 
 	@Override
 	public void suggestAndDoMoves(int maxMoves, IntList output) {
+		if (moveSampler != null) {
+			for (int i = 0; i < maxMoves; i++) {
+				int randomMove = moveSampler.sampleMove(board, randomGenerator);
+				if (randomMove == -1) {
+					return;
+				}
+				doMove(randomMove);
+				output.push(randomMove);
+			}
+			return;
+		}
 		for (int i = 0; i < maxMoves; i++) {
 			moveBuffer.clear();
 			moveGenerator.generateMoves(board, moveBuffer);
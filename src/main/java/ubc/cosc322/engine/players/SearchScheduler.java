@@ -0,0 +1,193 @@
+package ubc.cosc322.engine.players;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A pool of long lived worker threads shared by any number of searches, so
+ * several players or games can search in one process without running more
+ * threads than there are cores. Each search is split into tasks, and at most
+ * one thread runs each task at a time, so the number of tasks is the most
+ * threads the search gets. Threads run tasks in short slices and go round
+ * the searches in turn between slices, so searches share the threads fairly.
+ */
+public class SearchScheduler implements AutoCloseable {
+
+	/** The longest a task runs before its thread moves on to another search. */
+	public static final long SLICE_NANOS = 10_000_000;
+
+	private static SearchScheduler shared;
+
+	/** A unit of work that a search is split into. */
+	public interface Task {
+		/**
+		 * Does some work, returning soon after a deadline from System.nanoTime,
+		 * or as soon as the job is stopped.
+		 */
+		void run(Job job, long deadline);
+	}
+
+	/** The tasks of a search that has been started. */
+	public final class Job {
+
+		private final Task[] tasks;
+		private final boolean[] running;
+		private int runningCount;
+		// the task to look at first, so tasks take turns when there are
+		// fewer threads than tasks
+		private int nextTask;
+		private volatile boolean stopping;
+
+		private Job(List<? extends Task> tasks) {
+			this.tasks = tasks.toArray(new Task[0]);
+			this.running = new boolean[this.tasks.length];
+		}
+
+		/** Whether the job has been asked to stop. */
+		public boolean isStopping() {
+			return stopping;
+		}
+
+		/** Stops the job, waiting for any of its tasks that are running to return. */
+		public void stop() {
+			stopping = true;
+			synchronized (SearchScheduler.this) {
+				jobs.remove(this);
+				while (runningCount > 0) {
+					try {
+						SearchScheduler.this.wait();
+					} catch (InterruptedException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		}
+
+		// finds a task no thread is running, or -1
+		private int claimTask() {
+			for (int i = 0; i < tasks.length; i++) {
+				int task = (nextTask + i) % tasks.length;
+				if (!running[task]) {
+					running[task] = true;
+					runningCount++;
+					nextTask = task + 1;
+					return task;
+				}
+			}
+			return -1;
+		}
+
+		private void releaseTask(int task) {
+			running[task] = false;
+			runningCount--;
+		}
+
+	}
+
+	// jobs that have been started and not stopped, guarded by this
+	private final ArrayList<Job> jobs;
+
+	// the job to look at first for the next slice, so jobs take turns
+	private int nextJob;
+
+	private final Thread[] threads;
+	private boolean closed;
+
+	/** Creates a scheduler with a number of threads. */
+	public SearchScheduler(int threadCount) {
+		this.jobs = new ArrayList<>();
+		this.threads = new Thread[threadCount];
+		for (int i = 0; i < threadCount; i++) {
+			threads[i] = new Thread(this::work, "search-" + i);
+			// daemon threads, so a scheduler nobody closes doesn't keep the
+			// process running, and low priority so they don't ruin main
+			// thread responsivness, which can cause problems with turn timings
+			threads[i].setDaemon(true);
+			threads[i].setPriority(Thread.MIN_PRIORITY);
+			threads[i].start();
+		}
+	}
+
+	/**
+	 * Gets the scheduler shared by the whole process, with a thread per core.
+	 * It is never closed, its threads are daemons.
+	 */
+	public static synchronized SearchScheduler getShared() {
+		if (shared == null) {
+			shared = new SearchScheduler(Runtime.getRuntime().availableProcessors());
+		}
+		return shared;
+	}
+
+	/** The number of threads in the pool. */
+	public int getThreadCount() {
+		return threads.length;
+	}
+
+	/** Starts running tasks, until the job that is returned is stopped. */
+	public synchronized Job start(List<? extends Task> tasks) {
+		if (closed) {
+			throw new IllegalStateException("scheduler is closed");
+		}
+		Job job = new Job(tasks);
+		jobs.add(job);
+		notifyAll();
+		return job;
+	}
+
+	// the thread loop, which takes a slice of a task from each job in turn
+	private void work() {
+		while (true) {
+			Job job = null;
+			int task = -1;
+			synchronized (this) {
+				while (job == null) {
+					if (closed) {
+						return;
+					}
+					for (int i = 0; i < jobs.size() && job == null; i++) {
+						int index = (nextJob + i) % jobs.size();
+						task = jobs.get(index).claimTask();
+						if (task != -1) {
+							job = jobs.get(index);
+							nextJob = index + 1;
+						}
+					}
+					if (job == null) {
+						try {
+							wait();
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+				}
+			}
+			try {
+				job.tasks[task].run(job, System.nanoTime() + SLICE_NANOS);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+			synchronized (this) {
+				job.releaseTask(task);
+				notifyAll();
+			}
+		}
+	}
+
+	/** Stops the threads once they finish the slices they're running. */
+	@Override
+	public void close() {
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+		for (Thread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+}
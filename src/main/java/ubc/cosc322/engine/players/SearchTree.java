@@ -0,0 +1,476 @@
+package ubc.cosc322.engine.players;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ubc.cosc322.engine.core.Color;
+import ubc.cosc322.engine.util.IntList;
+
+/**
+ * An arena for a Monte Carlo search tree. Nodes and edges live in flat
+ * primitive arrays indexed by int ids instead of as objects, so the whole
+ * tree costs a fixed amount of memory up front and gives the garbage
+ * collector nothing to trace. Each node owns an exact sized range of edges,
+ * one per legal move, and each edge holds the move, the child node id and the
+ * stats of the move. Nodes are never freed individually, instead the tree is
+ * compacted around a new root when it fills up. Optionally, nodes can be
+ * shared by every edge that leads to the same position, using a
+ * transposition table, which turns the tree into a directed acyclic graph.
+ */
+class SearchTree {
+
+	/** The id used for a missing node or edge. */
+	public static final int NONE = -1;
+
+	/** The child of an edge that a worker has claimed and is expanding. */
+	public static final int EXPANDING = -2;
+
+	/** A proof for a node or edge that hasn't been found. */
+	public static final byte UNKNOWN = 0;
+
+	/** The proof of a node the color to move wins, or an edge that wins for the color choosing it. */
+	public static final byte WIN = 1;
+
+	/** The proof of a node the color to move loses, or an edge that loses for the color choosing it. */
+	public static final byte LOSS = 2;
+
+	/** The number of bytes taken by a node in the arena, not counting its edges. */
+	public static final int NODE_BYTES = 1 + 4 + 4 + 4 + 8 + 1;
+
+	/** The number of bytes taken by an edge in the arena. */
+	public static final int EDGE_BYTES = 4 + 4 + 8 + 1;
+
+	// the number of edges a node is expected to have, used to split memory
+	// between nodes and edges, most nodes are arrow nodes with a few dozen
+	private static final int EXPECTED_EDGES_PER_NODE = 32;
+
+	// arrays can't be quite as long as Integer.MAX_VALUE on most jvms
+	private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+	private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+	private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+	private static final VarHandle BYTES = MethodHandles.arrayElementVarHandle(byte[].class);
+
+	private static final Color[] COLORS = Color.values();
+
+	// nodes
+	private final byte[] nodeColor;
+	private final int[] nodeEdgeStart;
+	private final int[] nodeEdgeCount;
+	private final int[] nodeNextToExpand;
+	private final long[] nodeHash;
+	private final byte[] nodeProof;
+
+	// edges
+	private final int[] edgeMove;
+	private final int[] edgeChild;
+	// evaluations in the high 32 bits and rewards in the low 32 bits, so
+	// both are updated by one atomic add and always read together
+	private final long[] edgeStats;
+	private final byte[] edgeProof;
+
+	// the node count is in the high 32 bits and the edge count in the low 32
+	// bits, so a node and its edges are allocated by a single atomic add, and
+	// node ids and edge ranges always grow in the same order, which lets
+	// compaction move everything down in place
+	private final AtomicLong allocated;
+
+	// set once an allocation fails, so workers stop trying until compaction
+	private volatile boolean full;
+
+	// finds nodes by the hash of their position, null if nodes aren't shared
+	private final TranspositionTable transpositions;
+
+	/**
+	 * Creates an arena that can hold a number of nodes and edges, and
+	 * optionally a transposition table for sharing nodes.
+	 */
+	public SearchTree(int nodeCapacity, int edgeCapacity, boolean transpositions) {
+		if (nodeCapacity <= 0 || edgeCapacity <= 0 || edgeCapacity > MAX_ARRAY_LENGTH) {
+			throw new IllegalArgumentException("invalid search tree capacity");
+		}
+		this.nodeColor = new byte[nodeCapacity];
+		this.nodeEdgeStart = new int[nodeCapacity];
+		this.nodeEdgeCount = new int[nodeCapacity];
+		this.nodeNextToExpand = new int[nodeCapacity];
+		this.nodeHash = new long[nodeCapacity];
+		this.nodeProof = new byte[nodeCapacity];
+		this.edgeMove = new int[edgeCapacity];
+		this.edgeChild = new int[edgeCapacity];
+		this.edgeStats = new long[edgeCapacity];
+		this.edgeProof = new byte[edgeCapacity];
+		this.allocated = new AtomicLong();
+		this.full = false;
+		this.transpositions = transpositions ? new TranspositionTable(nodeCapacity) : null;
+	}
+
+	/** Creates an arena that takes up about a given number of bytes. */
+	public static SearchTree withMemory(long bytes, boolean transpositions) {
+		long perNode = NODE_BYTES + (long) EXPECTED_EDGES_PER_NODE * EDGE_BYTES;
+		if (transpositions) {
+			// the table has between two and four slots per node
+			perNode += 4 * TranspositionTable.SLOT_BYTES;
+		}
+		long nodeCapacity = Math.max(1, bytes / perNode);
+		long edgeCapacity = Math.min(MAX_ARRAY_LENGTH, nodeCapacity * EXPECTED_EDGES_PER_NODE);
+		return new SearchTree((int) Math.min(MAX_ARRAY_LENGTH, nodeCapacity), (int) edgeCapacity, transpositions);
+	}
+
+	/**
+	 * Allocates a node for a position with an edge for every move in a list.
+	 * Returns the id of the node, or NONE if the arena is full. The node can
+	 * be linked into the tree with setChild once it is allocated.
+	 */
+	public int allocate(Color color, long hash, IntList moves) {
+		int node = allocate(color, hash, moves.size());
+		if (node != NONE) {
+			int start = nodeEdgeStart[node];
+			for (int i = 0; i < moves.size(); i++) {
+				edgeMove[start + i] = moves.get(i);
+			}
+		}
+		return node;
+	}
+
+	/**
+	 * Allocates a node for a position with a number of edges, whose moves
+	 * have to be set with setMove. Returns the id of the node, or NONE if the
+	 * arena is full.
+	 */
+	public int allocate(Color color, long hash, int size) {
+		if (full) {
+			return NONE;
+		}
+		long before = allocated.getAndAdd((1L << 32) + size);
+		int node = (int) (before >>> 32);
+		long edgeStart = before & 0xFFFFFFFFL;
+		if (node >= nodeColor.length || edgeStart + size > edgeMove.length) {
+			// the counter is left past the end, but it is reset by compaction
+			full = true;
+			return NONE;
+		}
+		int start = (int) edgeStart;
+		nodeColor[node] = (byte) color.ordinal();
+		nodeEdgeStart[node] = start;
+		nodeEdgeCount[node] = size;
+		nodeNextToExpand[node] = 0;
+		nodeHash[node] = hash;
+		// the color to move loses when there are no moves
+		nodeProof[node] = size == 0 ? LOSS : UNKNOWN;
+		for (int i = 0; i < size; i++) {
+			edgeChild[start + i] = NONE;
+			edgeStats[start + i] = 0;
+			edgeProof[start + i] = UNKNOWN;
+		}
+		return node;
+	}
+
+	/** Throws away every node. Nothing else may use the arena meanwhile. */
+	public void clear() {
+		allocated.set(0);
+		full = false;
+		if (transpositions != null) {
+			transpositions.clear();
+		}
+	}
+
+	/** Whether nodes are shared between positions reached in different ways. */
+	public boolean hasTranspositions() {
+		return transpositions != null;
+	}
+
+	/** Finds a node for the position with a hash, or NONE. */
+	public int findTransposition(long hash) {
+		if (transpositions == null) {
+			return NONE;
+		}
+		int node = transpositions.get(hash);
+		if (node < 0 || nodeHash[node] != hash) {
+			return NONE;
+		}
+		return node;
+	}
+
+	/**
+	 * Makes a node that has been allocated available to be shared. Returns
+	 * the node that should be used for its position, which is another node if
+	 * one was shared first.
+	 */
+	public int share(int node) {
+		if (transpositions == null) {
+			return node;
+		}
+		int shared = transpositions.putIfAbsent(nodeHash[node], node);
+		if (shared < 0 || nodeHash[shared] != nodeHash[node]) {
+			return node;
+		}
+		return shared;
+	}
+
+	/** Whether an allocation has failed since the arena was last compacted. */
+	public boolean isFull() {
+		return full;
+	}
+
+	/** The color to move at a node. */
+	public Color color(int node) {
+		return COLORS[nodeColor[node]];
+	}
+
+	/** Whether the color to move at a node is proven to win or lose, or UNKNOWN. */
+	public byte proof(int node) {
+		return (byte) BYTES.getOpaque(nodeProof, node);
+	}
+
+	/**
+	 * Sets the proof of a node. Proofs never change once they are found, so
+	 * workers racing to set one always set the same thing.
+	 */
+	public void setProof(int node, byte proof) {
+		BYTES.setOpaque(nodeProof, node, proof);
+	}
+
+	/** Whether an edge is proven to win or lose for the color choosing it, or UNKNOWN. */
+	public byte edgeProof(int edge) {
+		return (byte) BYTES.getOpaque(edgeProof, edge);
+	}
+
+	/** Sets the proof of an edge. */
+	public void setEdgeProof(int edge, byte proof) {
+		BYTES.setOpaque(edgeProof, edge, proof);
+	}
+
+	/** The id of the first edge of a node. */
+	public int edgeStart(int node) {
+		return nodeEdgeStart[node];
+	}
+
+	/** The number of edges of a node. */
+	public int edgeCount(int node) {
+		return nodeEdgeCount[node];
+	}
+
+	/** The index of the next edge of a node that hasn't been expanded. */
+	public int nextToExpand(int node) {
+		return nodeNextToExpand[node];
+	}
+
+	/**
+	 * Atomically claims the next edge of a node to expand, if it is still at
+	 * an index. Only one caller can claim each index.
+	 */
+	public boolean claimNextToExpand(int node, int index) {
+		return INTS.compareAndSet(nodeNextToExpand, node, index, index + 1);
+	}
+
+	/** Finds the edge of a node with a given move, or NONE. */
+	public int findEdge(int node, int move) {
+		int start = nodeEdgeStart[node];
+		int end = start + nodeEdgeCount[node];
+		for (int edge = start; edge < end; edge++) {
+			if (edgeMove[edge] == move) {
+				return edge;
+			}
+		}
+		return NONE;
+	}
+
+	/** The move of an edge. */
+	public int move(int edge) {
+		return (int) INTS.getAcquire(edgeMove, edge);
+	}
+
+	/**
+	 * Sets the move of an edge. Moves can be filled in after the node is
+	 * linked into the tree, for moves that are found lazily.
+	 */
+	public void setMove(int edge, int move) {
+		INTS.setRelease(edgeMove, edge, move);
+	}
+
+	/** Atomically changes the move of an edge, if it is still an expected value. */
+	public boolean claimMove(int edge, int expected, int move) {
+		return INTS.compareAndSet(edgeMove, edge, expected, move);
+	}
+
+	/**
+	 * The node an edge leads to, NONE if it hasn't been expanded or EXPANDING
+	 * if it is being expanded.
+	 */
+	public int child(int edge) {
+		return (int) INTS.getAcquire(edgeChild, edge);
+	}
+
+	/**
+	 * Atomically claims an edge that hasn't been expanded, so only one caller
+	 * expands it. The claimer must set the child afterwards, to a node or
+	 * back to NONE.
+	 */
+	public boolean claimChild(int edge) {
+		return INTS.compareAndSet(edgeChild, edge, NONE, EXPANDING);
+	}
+
+	/** Links a node that has been allocated to an edge that has been claimed. */
+	public void setChild(int edge, int node) {
+		// release so other threads never see the child before its contents
+		INTS.setRelease(edgeChild, edge, node);
+	}
+
+	/** A consistent snapshot of the packed stats of an edge. */
+	public long stats(int edge) {
+		return (long) LONGS.getOpaque(edgeStats, edge);
+	}
+
+	/** The number of evaluations through an edge in packed stats. */
+	public static int evaluations(long stats) {
+		return (int) (stats >>> 32);
+	}
+
+	/** The number of evaluations won by the color to move at the parent in packed stats. */
+	public static int rewards(long stats) {
+		return (int) stats;
+	}
+
+	/**
+	 * Atomically adds pending evaluations to an edge, which count as losses
+	 * for the color choosing the edge until they are taken back.
+	 */
+	public void addVirtualLoss(int edge, int virtualLoss) {
+		LONGS.getAndAdd(edgeStats, edge, (long) virtualLoss << 32);
+	}
+
+	/**
+	 * Atomically records a number of evaluations through an edge, and how
+	 * many of them were won, taking back the virtual loss that was added
+	 * when the edge was selected.
+	 */
+	public void addEvaluations(int edge, int evaluations, int rewards, int virtualLoss) {
+		// rewards never go negative, so adding a negative number of
+		// evaluations can't borrow from them
+		LONGS.getAndAdd(edgeStats, edge, ((long) (evaluations - virtualLoss) << 32) + rewards);
+	}
+
+	/** The number of nodes in the arena. */
+	public int nodeCount() {
+		return (int) Math.min(nodeColor.length, allocated.get() >>> 32);
+	}
+
+	/** The number of edges in the arena. */
+	public long edgeCount() {
+		return Math.min(edgeMove.length, allocated.get() & 0xFFFFFFFFL);
+	}
+
+	/** The number of bytes used by the nodes and edges in the arena. */
+	public long usedBytes() {
+		return (long) nodeCount() * NODE_BYTES + edgeCount() * EDGE_BYTES;
+	}
+
+	/** The number of bytes reserved by the arena, including any transposition table. */
+	public long capacityBytes() {
+		long bytes = (long) nodeColor.length * NODE_BYTES + (long) edgeMove.length * EDGE_BYTES;
+		if (transpositions != null) {
+			bytes += transpositions.capacityBytes();
+		}
+		return bytes;
+	}
+
+	/** The fraction of the node or edge capacity used, whichever is larger. */
+	public double usage() {
+		return Math.max((double) nodeCount() / nodeColor.length, (double) edgeCount() / edgeMove.length);
+	}
+
+	/**
+	 * Throws away every node that can't be reached from a root, moving the
+	 * rest to the start of the arena. Returns the new id of the root. Nothing
+	 * else may use the arena while it is compacted.
+	 */
+	public int compact(int root) {
+		int nodeCount = nodeCount();
+
+		// mark reachable nodes with a depth first search
+		long[] reachable = new long[(nodeCount + 63) >>> 6];
+		IntList stack = new IntList(64);
+		reachable[root >>> 6] |= 1L << root;
+		stack.push(root);
+		while (stack.size() != 0) {
+			int node = stack.pop();
+			int start = nodeEdgeStart[node];
+			int end = start + nodeEdgeCount[node];
+			for (int edge = start; edge < end; edge++) {
+				int child = edgeChild[edge];
+				if (child >= 0 && (reachable[child >>> 6] & (1L << child)) == 0) {
+					reachable[child >>> 6] |= 1L << child;
+					if (stack.size() == stack.capacity()) {
+						stack = grow(stack);
+					}
+					stack.push(child);
+				}
+			}
+		}
+
+		// the new id of a node is the number of reachable nodes before it
+		int[] ranks = new int[reachable.length];
+		int count = 0;
+		for (int i = 0; i < reachable.length; i++) {
+			ranks[i] = count;
+			count += Long.bitCount(reachable[i]);
+		}
+
+		// nodes and their edges only ever move down, in order, so nothing is
+		// overwritten before it has been moved
+		int edgeCursor = 0;
+		for (int i = 0; i < reachable.length; i++) {
+			long bits = reachable[i];
+			while (bits != 0) {
+				int node = (i << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				int newNode = rank(reachable, ranks, node);
+				int start = nodeEdgeStart[node];
+				int size = nodeEdgeCount[node];
+				nodeColor[newNode] = nodeColor[node];
+				nodeEdgeStart[newNode] = edgeCursor;
+				nodeEdgeCount[newNode] = size;
+				nodeNextToExpand[newNode] = nodeNextToExpand[node];
+				nodeHash[newNode] = nodeHash[node];
+				nodeProof[newNode] = nodeProof[node];
+				System.arraycopy(edgeMove, start, edgeMove, edgeCursor, size);
+				System.arraycopy(edgeChild, start, edgeChild, edgeCursor, size);
+				System.arraycopy(edgeStats, start, edgeStats, edgeCursor, size);
+				System.arraycopy(edgeProof, start, edgeProof, edgeCursor, size);
+				for (int edge = edgeCursor; edge < edgeCursor + size; edge++) {
+					if (edgeChild[edge] >= 0) {
+						edgeChild[edge] = rank(reachable, ranks, edgeChild[edge]);
+					}
+				}
+				edgeCursor += size;
+			}
+		}
+
+		allocated.set(((long) count << 32) | edgeCursor);
+		full = false;
+
+		// node ids have changed, so the table is built again
+		if (transpositions != null) {
+			transpositions.clear();
+			for (int node = 0; node < count; node++) {
+				transpositions.putIfAbsent(nodeHash[node], node);
+			}
+		}
+
+		return rank(reachable, ranks, root);
+	}
+
+	private static int rank(long[] reachable, int[] ranks, int node) {
+		return ranks[node >>> 6] + Long.bitCount(reachable[node >>> 6] & ((1L << node) - 1));
+	}
+
+	private static IntList grow(IntList list) {
+		IntList grown = new IntList(list.capacity() * 2);
+		for (int i = 0; i < list.size(); i++) {
+			grown.push(list.get(i));
+		}
+		return grown;
+	}
+
+}
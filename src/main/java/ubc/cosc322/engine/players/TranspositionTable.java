@@ -0,0 +1,108 @@
+package ubc.cosc322.engine.players;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * A lock-free hash table from zobrist hashes to search tree node ids, so
+ * nodes for positions reached by different move orders can be shared. It uses
+ * open addressing with linear probing, entries are never removed one at a
+ * time, only cleared all together. Hashes are trusted to be unique, callers
+ * that need to be sure should compare them with the hash of the node.
+ */
+class TranspositionTable {
+
+	/** The number of bytes taken by each slot of the table. */
+	public static final int SLOT_BYTES = 8 + 4;
+
+	// how far an insertion probes before giving up, the table is sized so
+	// it stays at most half full, so this is hardly ever reached
+	private static final int MAX_PROBES = 32;
+
+	// the key of an empty slot, a hash of zero is stored as one instead
+	private static final long EMPTY = 0;
+
+	private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+	private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+
+	private final long[] keys;
+	private final int[] nodes;
+	private final int mask;
+
+	/** Creates a table with room for at least a number of nodes. */
+	public TranspositionTable(int capacity) {
+		int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 2;
+		if (size <= 0) {
+			size = 1 << 30;
+		}
+		this.keys = new long[size];
+		this.nodes = new int[size];
+		this.mask = size - 1;
+		clear();
+	}
+
+	/** Finds the node with a hash, or SearchTree.NONE. */
+	public int get(long hash) {
+		long key = key(hash);
+		int slot = slot(key);
+		for (int i = 0; i < MAX_PROBES; i++) {
+			long found = (long) LONGS.getAcquire(keys, slot);
+			if (found == key) {
+				return (int) INTS.getAcquire(nodes, slot);
+			}
+			if (found == EMPTY) {
+				return SearchTree.NONE;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return SearchTree.NONE;
+	}
+
+	/**
+	 * Adds a node with a hash, unless there is one already. Returns the node
+	 * in the table for the hash afterwards, which is the given node if it was
+	 * added, or SearchTree.NONE if the other node isn't ready or there was
+	 * no room.
+	 */
+	public int putIfAbsent(long hash, int node) {
+		long key = key(hash);
+		int slot = slot(key);
+		for (int i = 0; i < MAX_PROBES; i++) {
+			long found = (long) LONGS.getAcquire(keys, slot);
+			if (found == EMPTY) {
+				if (LONGS.compareAndSet(keys, slot, EMPTY, key)) {
+					INTS.setRelease(nodes, slot, node);
+					return node;
+				}
+				found = (long) LONGS.getAcquire(keys, slot);
+			}
+			if (found == key) {
+				return (int) INTS.getAcquire(nodes, slot);
+			}
+			slot = (slot + 1) & mask;
+		}
+		return SearchTree.NONE;
+	}
+
+	/** Removes every entry. Nothing else may use the table meanwhile. */
+	public void clear() {
+		Arrays.fill(keys, EMPTY);
+		Arrays.fill(nodes, SearchTree.NONE);
+	}
+
+	/** The number of bytes taken by the table. */
+	public long capacityBytes() {
+		return (long) keys.length * SLOT_BYTES;
+	}
+
+	private static long key(long hash) {
+		return hash == EMPTY ? 1 : hash;
+	}
+
+	// the low bits of zobrist hashes are as random as any others
+	private int slot(long key) {
+		return (int) key & mask;
+	}
+
+}
@@ -0,0 +1,52 @@
+package ubc.cosc322.engine.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ubc.cosc322.engine.core.Board;
+import ubc.cosc322.engine.players.DistributedPlayer;
+import ubc.cosc322.engine.players.MoveStats;
+
+/**
+ * Measures how a distributed search scales with the number of worker
+ * processes on this host, each with a single search thread. Reports the
+ * evaluations per second through the root, added up across the workers,
+ * for each number of processes, and the speedup over a single process.
+ */
+public class DistributedBenchmark {
+
+	public static void main(String[] args) throws Exception {
+
+		final int MAX_PROCESSES = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		final int THREADS_PER_PROCESS = 1;
+		final int WARMUP_MILLIS = 3000;
+		final int MEASURE_MILLIS = 5000;
+
+		System.out.println("processes\tevaluations/s\tspeedup");
+		double baseline = 0.0;
+		for (int processes = 1; processes <= MAX_PROCESSES; processes *= 2) {
+			List<List<String>> commands = new ArrayList<>(processes);
+			for (int i = 0; i < processes; i++) {
+				commands.add(DistributedPlayer.localWorkerCommand(THREADS_PER_PROCESS));
+			}
+			try (DistributedPlayer player = new DistributedPlayer(commands, MEASURE_MILLIS)) {
+				// warm up the jit in every worker, then start again with
+				// empty trees from the same position
+				player.useBoard(new Board());
+				player.search(WARMUP_MILLIS);
+				player.useBoard(new Board());
+				long evaluations = 0;
+				for (MoveStats stats : player.search(MEASURE_MILLIS)) {
+					evaluations += stats.evaluations;
+				}
+				double rate = evaluations * 1000.0 / MEASURE_MILLIS;
+				if (processes == 1) {
+					baseline = rate;
+				}
+				System.out.printf("%d\t%.0f\t%.2f%n", processes, rate, rate / baseline);
+			}
+		}
+
+	}
+
+}
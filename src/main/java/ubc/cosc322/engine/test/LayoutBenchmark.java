@@ -0,0 +1,94 @@
+package ubc.cosc322.engine.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import ubc.cosc322.engine.core.Board;
+import ubc.cosc322.engine.core.Dimensions;
+import ubc.cosc322.engine.generators.LegalMoveGenerator;
+import ubc.cosc322.engine.heuristics.Heuristic;
+import ubc.cosc322.engine.heuristics.RolloutHeuristic;
+import ubc.cosc322.engine.players.RandomPlayer;
+import ubc.cosc322.engine.util.IntList;
+
+/**
+ * Compares move generation speed of the standard board layout, which uses
+ * bitboard ray masks, against the sentinel layout, which walks rays in the
+ * byte board until it hits a non empty position.
+ */
+public class LayoutBenchmark {
+
+	public static void main(String[] args) {
+
+		final int POSITION_COUNT = 2000;
+		final int ROUNDS = 3;
+		final long ROUND_MILLIS = 3000;
+
+		for (int round = 0; round < ROUNDS; round++) {
+			System.out.println("round " + (round + 1) + " of " + ROUNDS + (round == 0 ? " (warmup)" : ""));
+			for (boolean sentinels : new boolean[] { false, true }) {
+				String layout = sentinels ? "sentinel" : "standard";
+				Dimensions dimensions = new Dimensions(10, 10, sentinels);
+				// the same seed gives both layouts the same positions
+				List<Board> positions = samplePositions(dimensions, POSITION_COUNT, new Random(322));
+				System.out.println(layout + " generated moves/s: " + generationRate(positions, ROUND_MILLIS));
+				System.out.println(layout + " rollouts/s: " + rolloutRate(positions.get(0), ROUND_MILLIS));
+			}
+		}
+
+	}
+
+	// positions from random games, so all stages of the game are measured
+	private static List<Board> samplePositions(Dimensions dimensions, int count, Random random) {
+		List<Board> positions = new ArrayList<>(count);
+		Board board = Board.startingPosition(dimensions, Board.DEFAULT_QUEENS_PER_COLOR);
+		IntList moves = new IntList(board.getMaxMovesAbsolute());
+		while (positions.size() < count) {
+			moves.clear();
+			board.generateMoves(moves);
+			if (moves.size() == 0) {
+				board = Board.startingPosition(dimensions, Board.DEFAULT_QUEENS_PER_COLOR);
+				continue;
+			}
+			positions.add(board.clone());
+			board.doMove(moves.get(random.nextInt(moves.size())));
+		}
+		return positions;
+	}
+
+	private static long generationRate(List<Board> positions, long millis) {
+		IntList moves = new IntList(positions.get(0).getMaxMovesAbsolute());
+		long generated = 0;
+		long start = System.nanoTime();
+		long end = start + millis * 1_000_000;
+		long now;
+		do {
+			for (Board board : positions) {
+				moves.clear();
+				board.generateMoves(moves);
+				generated += moves.size();
+			}
+			now = System.nanoTime();
+		} while (now < end);
+		return generated * 1_000_000_000 / (now - start);
+	}
+
+	private static long rolloutRate(Board initialBoard, long millis) {
+		Heuristic rollout = new RolloutHeuristic(new RandomPlayer(new LegalMoveGenerator()));
+		Board board = initialBoard.clone();
+		int mark = board.getUndoMark();
+		long rollouts = 0;
+		long start = System.nanoTime();
+		long end = start + millis * 1_000_000;
+		long now;
+		do {
+			rollout.evaluate(board);
+			board.undoToMark(mark);
+			rollouts++;
+			now = System.nanoTime();
+		} while (now < end);
+		return rollouts * 1_000_000_000 / (now - start);
+	}
+
+}
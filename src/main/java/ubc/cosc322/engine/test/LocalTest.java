@@ -1,7 +1,7 @@
 package ubc.cosc322.engine.test;
 
+import ubc.cosc322.engine.codec.TextPositionReader;
 import ubc.cosc322.engine.core.Color;
-import ubc.cosc322.engine.core.Dimensions;
 import ubc.cosc322.engine.generators.ContestedMoveGenerator;
 import ubc.cosc322.engine.generators.LegalMoveGenerator;
 
@@ -27,7 +27,7 @@ public class LocalTest {
 		final int ITERATION_COUNT = 1;
 
 		Board initialBoard = new Board(); // standard 10x10 4 queen board
-		// Board initialBoard = loadBoardFromFile(new Dimensions(10, 10), Color.BLACK, "/Users/luctowers/Documents/ubco/cosc322/team-01/scratch/game.txt");
+		// Board initialBoard = loadBoardFromFile("/Users/luctowers/Documents/ubco/cosc322/team-01/scratch/game.txt");
 
 		MonteCarloPlayer white = new MonteCarloPlayer(() -> new RolloutHeuristic(new RandomPlayer(new LegalMoveGenerator())), () -> new LegalMoveGenerator(), 8, 15000, 0.3);
 		MonteCarloPlayer black = new MonteCarloPlayer(
@@ -90,9 +90,10 @@ public class LocalTest {
 
 	}
 
-	public static Board loadBoardFromFile(Dimensions dimensions, Color color, String filepath) {
-		try {
-			return new Board(dimensions, color, new String(Files.readAllBytes(Paths.get(filepath))));
+	/** Loads the first position from a file of positions in position notation. */
+	public static Board loadBoardFromFile(String filepath) {
+		try (TextPositionReader reader = new TextPositionReader(Files.newBufferedReader(Paths.get(filepath)))) {
+			return reader.read();
 		} catch (IOException e) {
 			e.printStackTrace();
 			return null;
@@ -0,0 +1,129 @@
+package ubc.cosc322.engine.test;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import ubc.cosc322.engine.codec.BinaryPositionReader;
+import ubc.cosc322.engine.codec.BinaryPositionWriter;
+import ubc.cosc322.engine.codec.PositionBinary;
+import ubc.cosc322.engine.codec.TextPositionReader;
+import ubc.cosc322.engine.codec.TextPositionWriter;
+import ubc.cosc322.engine.core.Board;
+import ubc.cosc322.engine.util.IntList;
+
+/**
+ * Writes a suite of positions from random games in both the text and binary
+ * formats, reads them back, checks they match, and reports how fast each
+ * format is and how big the files are.
+ */
+public class PositionSuiteBenchmark {
+
+	public static void main(String[] args) throws IOException {
+
+		final int POSITION_COUNT = 50000;
+		final int ROUNDS = 3;
+
+		List<Board> positions = samplePositions(POSITION_COUNT, new Random(322));
+		Path textFile = Files.createTempFile("positions", ".txt");
+		Path binaryFile = Files.createTempFile("positions", ".bin");
+
+		try {
+			for (int round = 0; round < ROUNDS; round++) {
+				System.out.println("round " + (round + 1) + " of " + ROUNDS + (round == 0 ? " (warmup)" : ""));
+
+				long start = System.nanoTime();
+				try (TextPositionWriter writer = new TextPositionWriter(Files.newBufferedWriter(textFile, StandardCharsets.US_ASCII))) {
+					for (Board board : positions) {
+						writer.write(board);
+					}
+				}
+				report("text write", start, positions.size());
+
+				start = System.nanoTime();
+				long checksum = 0;
+				int count = 0;
+				try (TextPositionReader reader = new TextPositionReader(Files.newBufferedReader(textFile, StandardCharsets.US_ASCII))) {
+					for (Board board = reader.read(); board != null; board = reader.read()) {
+						checksum += board.getHash();
+						count++;
+					}
+				}
+				report("text read", start, count);
+				verify(positions, count, checksum);
+
+				start = System.nanoTime();
+				PositionBinary codec = new PositionBinary(positions.get(0).dimensions, Board.DEFAULT_QUEENS_PER_COLOR);
+				try (BinaryPositionWriter writer = new BinaryPositionWriter(new FileOutputStream(binaryFile.toFile()), codec)) {
+					for (Board board : positions) {
+						writer.write(board);
+					}
+				}
+				report("binary write", start, positions.size());
+
+				start = System.nanoTime();
+				checksum = 0;
+				count = 0;
+				try (BinaryPositionReader reader = new BinaryPositionReader(new FileInputStream(binaryFile.toFile()))) {
+					for (Board board = reader.read(); board != null; board = reader.read()) {
+						checksum += board.getHash();
+						count++;
+					}
+				}
+				report("binary read", start, count);
+				verify(positions, count, checksum);
+			}
+			System.out.println("text bytes/position: " + Files.size(textFile) / positions.size());
+			System.out.println("binary bytes/position: " + Files.size(binaryFile) / positions.size());
+		} finally {
+			Files.delete(textFile);
+			Files.delete(binaryFile);
+		}
+
+	}
+
+	private static void report(String name, long start, int count) {
+		long elapsed = System.nanoTime() - start;
+		System.out.println(name + " positions/s: " + count * 1_000_000_000L / elapsed);
+	}
+
+	// positions are checked by a sum of their hashes, so the boards that are
+	// read don't have to be kept around, which would make reading look slow
+	private static void verify(List<Board> expected, int count, long checksum) {
+		if (expected.size() != count) {
+			throw new IllegalStateException("expected " + expected.size() + " positions, got " + count);
+		}
+		long expectedChecksum = 0;
+		for (Board board : expected) {
+			expectedChecksum += board.getHash();
+		}
+		if (expectedChecksum != checksum) {
+			throw new IllegalStateException("positions read don't match those written");
+		}
+	}
+
+	// positions from random games, so all stages of the game are included
+	private static List<Board> samplePositions(int count, Random random) {
+		List<Board> positions = new ArrayList<>(count);
+		Board board = new Board();
+		IntList moves = new IntList(board.getMaxMovesAbsolute());
+		while (positions.size() < count) {
+			moves.clear();
+			board.generateMoves(moves);
+			if (moves.size() == 0) {
+				board = new Board();
+				continue;
+			}
+			positions.add(board.clone());
+			board.doMove(moves.get(random.nextInt(moves.size())));
+		}
+		return positions;
+	}
+
+}
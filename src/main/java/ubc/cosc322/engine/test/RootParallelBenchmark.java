@@ -0,0 +1,79 @@
+package ubc.cosc322.engine.test;
+
+import ubc.cosc322.engine.core.Board;
+import ubc.cosc322.engine.core.Color;
+import ubc.cosc322.engine.generators.LegalMoveGenerator;
+import ubc.cosc322.engine.heuristics.RolloutHeuristic;
+import ubc.cosc322.engine.players.MonteCarloPlayer;
+import ubc.cosc322.engine.players.RandomPlayer;
+
+/**
+ * Compares a single shared search tree against root parallelism, a tree per
+ * thread, as the number of threads grows. Reports evaluations per second
+ * from the starting position for both, then plays games between the two
+ * with the most threads, swapping colors halfway, to compare move quality.
+ */
+public class RootParallelBenchmark {
+
+	public static void main(String[] args) throws Exception {
+
+		final int MAX_THREADS = Runtime.getRuntime().availableProcessors();
+		final int THINKING_MILLIS = 3000;
+		final int GAMES = 10;
+		final int GAME_THINKING_MILLIS = 1000;
+
+		// warm up the jit with both modes
+		search(MAX_THREADS, 1, THINKING_MILLIS);
+		search(MAX_THREADS, MAX_THREADS, THINKING_MILLIS);
+
+		System.out.println("threads\tshared/s\troot parallel/s");
+		for (int threads = 1; threads <= MAX_THREADS; threads *= 2) {
+			MonteCarloPlayer.Stats shared = search(threads, 1, THINKING_MILLIS);
+			MonteCarloPlayer.Stats ensemble = search(threads, threads, THINKING_MILLIS);
+			System.out.printf("%d\t%.0f\t%.0f%n", threads,
+				shared.evaluations * 1000.0 / THINKING_MILLIS,
+				ensemble.evaluations * 1000.0 / THINKING_MILLIS
+			);
+		}
+
+		int ensembleWins = 0;
+		for (int half = 0; half < 2; half++) {
+			MonteCarloPlayer shared = createPlayer(MAX_THREADS, 1, GAME_THINKING_MILLIS);
+			MonteCarloPlayer ensemble = createPlayer(MAX_THREADS, MAX_THREADS, GAME_THINKING_MILLIS);
+			Color ensembleColor = half == 0 ? Color.WHITE : Color.BLACK;
+			HeadToHeadAnalyzer analyzer = half == 0
+				? new HeadToHeadAnalyzer(new Board(), ensemble, shared)
+				: new HeadToHeadAnalyzer(new Board(), shared, ensemble);
+			// closed by hand, the analyzer's close can throw anything its
+			// players' can, which try-with-resources warns about
+			try {
+				analyzer.play(GAMES / 2);
+				ensembleWins += analyzer.getWinCount(ensembleColor);
+			} finally {
+				analyzer.close();
+			}
+		}
+		System.out.println("root parallel won " + ensembleWins + " of " + GAMES + " games with " + MAX_THREADS + " threads");
+
+	}
+
+	private static MonteCarloPlayer createPlayer(int threads, int trees, int millis) {
+		MonteCarloPlayer player = new MonteCarloPlayer(
+			() -> new RolloutHeuristic(new RandomPlayer(new LegalMoveGenerator())),
+			() -> new LegalMoveGenerator(),
+			threads, millis, 0.3
+		);
+		player.setTreeCount(trees);
+		return player;
+	}
+
+	private static MonteCarloPlayer.Stats search(int threads, int trees, int millis) throws Exception {
+		MonteCarloPlayer player = createPlayer(threads, trees, millis);
+		player.useBoard(new Board());
+		player.suggestAndDoTurn();
+		MonteCarloPlayer.Stats stats = player.getStats();
+		player.close();
+		return stats;
+	}
+
+}
@@ -0,0 +1,66 @@
+package ubc.cosc322.engine.test;
+
+import ubc.cosc322.engine.core.Board;
+import ubc.cosc322.engine.core.Dimensions;
+import ubc.cosc322.engine.generators.LegalMoveGenerator;
+import ubc.cosc322.engine.heuristics.Heuristic;
+import ubc.cosc322.engine.heuristics.RolloutHeuristic;
+import ubc.cosc322.engine.players.RandomPlayer;
+
+/**
+ * Measures how random playouts per second scale with board area. Each size is
+ * run with the standard 4 queens per color, and with the number of queens
+ * scaled with the board width, so the density of queens stays about the same
+ * as a standard game.
+ */
+public class ScalingBenchmark {
+
+	public static void main(String[] args) {
+
+		final int[] SIZES = { 10, 14, 20, 28, 40, 64, 100 };
+		final long WARMUP_MILLIS = 3000;
+		final long MEASURE_MILLIS = 3000;
+
+		// warm up the jit on the standard board
+		playoutRate(new Board(), WARMUP_MILLIS);
+
+		System.out.println("size\tarea\tqueens\tplayouts/s\tmoves/s");
+		for (int size : SIZES) {
+			Dimensions dimensions = new Dimensions(size, size);
+			int scaledQueens = Math.max(Board.DEFAULT_QUEENS_PER_COLOR, Board.DEFAULT_QUEENS_PER_COLOR * size / 10);
+			int[] queenCounts = scaledQueens == Board.DEFAULT_QUEENS_PER_COLOR
+				? new int[] { Board.DEFAULT_QUEENS_PER_COLOR }
+				: new int[] { Board.DEFAULT_QUEENS_PER_COLOR, scaledQueens };
+			for (int queens : queenCounts) {
+				Board board = Board.startingPosition(dimensions, queens);
+				double[] rate = playoutRate(board, MEASURE_MILLIS);
+				System.out.printf("%dx%d\t%d\t%d\t%.1f\t%.0f%n",
+					size, size, dimensions.boardSize, queens, rate[0], rate[1]
+				);
+			}
+		}
+
+	}
+
+	// returns playouts per second and moves per second
+	private static double[] playoutRate(Board initialBoard, long millis) {
+		Heuristic rollout = new RolloutHeuristic(new RandomPlayer(new LegalMoveGenerator()));
+		Board board = initialBoard.clone();
+		int mark = board.getUndoMark();
+		long playouts = 0;
+		long moves = 0;
+		long start = System.nanoTime();
+		long end = start + millis * 1_000_000;
+		long now;
+		do {
+			rollout.evaluate(board);
+			moves += board.getMoveCount() - initialBoard.getMoveCount();
+			board.undoToMark(mark);
+			playouts++;
+			now = System.nanoTime();
+		} while (now < end);
+		double seconds = (now - start) / 1e9;
+		return new double[] { playouts / seconds, moves / seconds };
+	}
+
+}
@@ -0,0 +1,86 @@
+package ubc.cosc322.engine.test;
+
+import java.util.Random;
+
+import ubc.cosc322.engine.core.Board;
+import ubc.cosc322.engine.generators.LegalMoveGenerator;
+import ubc.cosc322.engine.heuristics.RolloutHeuristic;
+import ubc.cosc322.engine.players.MonteCarloPlayer;
+import ubc.cosc322.engine.players.RandomPlayer;
+import ubc.cosc322.engine.util.IntList;
+
+/**
+ * Compares trees with an edge per move against trees with an edge per turn,
+ * searching positions from the start, middle and end of a random game for a
+ * fixed time with each, and reporting evaluations per second, the size of
+ * the tree, and the bytes taken per node.
+ */
+public class TreeShapeBenchmark {
+
+	public static void main(String[] args) throws Exception {
+
+		final int[] RANDOM_TURNS = { 0, 10, 30 };
+		final int THREADS = Runtime.getRuntime().availableProcessors();
+		final int THINKING_MILLIS = 5000;
+
+		Random random = new Random(322);
+		Board[] positions = new Board[RANDOM_TURNS.length];
+		for (int i = 0; i < RANDOM_TURNS.length; i++) {
+			positions[i] = randomPosition(RANDOM_TURNS[i], random);
+		}
+
+		// warm up the jit with both shapes
+		for (boolean turnNodes : new boolean[] { false, true }) {
+			search(positions[0], turnNodes, THREADS, THINKING_MILLIS);
+		}
+
+		System.out.println("turns\tshape\tevaluations/s\tnodes\tMB\tbytes/node");
+		for (int i = 0; i < positions.length; i++) {
+			for (boolean turnNodes : new boolean[] { false, true }) {
+				MonteCarloPlayer.Stats stats = search(positions[i], turnNodes, THREADS, THINKING_MILLIS);
+				System.out.printf("%d\t%s\t%.0f\t%d\t%.1f\t%.1f%n",
+					RANDOM_TURNS[i], turnNodes ? "turn" : "move",
+					stats.evaluations * 1000.0 / THINKING_MILLIS,
+					stats.treeNodes, stats.treeBytes / 1e6, stats.bytesPerNode
+				);
+			}
+		}
+
+	}
+
+	private static MonteCarloPlayer.Stats search(Board board, boolean turnNodes, int threads, int millis) throws Exception {
+		MonteCarloPlayer player = new MonteCarloPlayer(
+			() -> new RolloutHeuristic(new RandomPlayer(new LegalMoveGenerator())),
+			() -> new LegalMoveGenerator(),
+			threads, millis, 0.3
+		);
+		player.setTurnNodes(turnNodes);
+		player.useBoard(board.clone());
+		player.suggestAndDoTurn();
+		MonteCarloPlayer.Stats stats = player.getStats();
+		player.close();
+		return stats;
+	}
+
+	// a position after some random turns, restarting if the game ends first
+	private static Board randomPosition(int turns, Random random) {
+		IntList moves = new IntList(new Board().getMaxMovesAbsolute());
+		while (true) {
+			Board board = new Board();
+			for (int i = 0; i < 2*turns; i++) {
+				moves.clear();
+				board.generateMoves(moves);
+				if (moves.size() == 0) {
+					break;
+				}
+				board.doMove(moves.get(random.nextInt(moves.size())));
+			}
+			moves.clear();
+			board.generateMoves(moves);
+			if (moves.size() > 0 && board.getMoveCount() == 2*turns) {
+				return board;
+			}
+		}
+	}
+
+}
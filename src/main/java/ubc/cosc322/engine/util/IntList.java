@@ -63,6 +63,16 @@ public final class IntList {
 		size--;
 	}
 
+	public void insert(int i, int n) {
+		// DEBUG ASSERTION
+		// if (i < 0 || i > size) {
+		// 	throw new IndexOutOfBoundsException();
+		// }
+		System.arraycopy(array, i, array, i+1, size - i);
+		array[i] = n;
+		size++;
+	}
+
 	public boolean removeValue(int n) {
 		for (int i = 0; i < size; i++) {
 			if (array[i] == n) {